@@ -5,9 +5,11 @@ import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.autoconfigure.amqp.RabbitAutoConfiguration;
 import org.springframework.context.annotation.Import;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 @SpringBootApplication
+@EnableScheduling // Disponibiliza o TaskScheduler usado pelas janelas de lote
 @Import({
     RabbitAutoConfiguration.class,  // Força o carregamento do RabbitMQ
     GRpcAutoConfiguration.class     // Força o carregamento do gRPC
@@ -0,0 +1,209 @@
+package com.chat.cache;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+
+import br.com.meuprojeto.chat.v1.Message;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Cache das últimas mensagens ("cauda quente") de cada conversa ativa, já em
+ * Protobuf, para servir a primeira página do GetMessages sem ir ao MongoDB.
+ *
+ * O Caffeine cuida da admissão/remoção por conversa (W-TinyLFU) e limita a
+ * memória pelo peso de cada cauda (tamanho serializado das mensagens).
+ *
+ * Uma cauda só serve leituras depois de carregada do MongoDB ("completa"). O
+ * Worker acrescenta as mensagens recém-gravadas; se a conversa ainda não está
+ * no cache ele cria uma cauda parcial, que é mesclada com o resultado do
+ * MongoDB na próxima carga. Isso evita perder uma mensagem gravada enquanto
+ * uma leitura estava carregando a cauda.
+ *
+ * Mensagens gravadas por outro nó chegam pelo ReplicadorCache. Se uma cópia
+ * se perde, a cauda fica desatualizada até expirar: o TTL
+ * ("chat.cache.ultimas-mensagens.ttl-s") conta a partir da última carga do
+ * MongoDB e não é renovado pelas mensagens acrescentadas, então ele é o
+ * limite de quanto tempo o GetMessages pode deixar de ver uma mensagem.
+ */
+@Component
+public class CacheUltimasMensagens {
+
+    // Mais recente primeiro; empate no timestamp desempata pelo id (ObjectId em hex)
+    private static final Comparator<Message> MAIS_RECENTE_PRIMEIRO = Comparator
+            .comparingLong((Message m) -> m.getSentAt().getSeconds())
+            .thenComparingInt(m -> m.getSentAt().getNanos())
+            .thenComparing(Message::getId)
+            .reversed();
+
+    // Custo aproximado de cada entrada além das mensagens (objetos, referências)
+    private static final int PESO_FIXO_CAUDA = 128;
+    private static final int PESO_FIXO_MENSAGEM = 48;
+
+    @Value("${chat.cache.ultimas-mensagens.por-conversa:50}")
+    private int mensagensPorConversa;
+
+    @Value("${chat.cache.ultimas-mensagens.memoria-max-bytes:67108864}")
+    private long memoriaMaximaBytes;
+
+    // Limita o tempo que uma cauda pode ficar desatualizada se uma cópia do ReplicadorCache se perder
+    @Value("${chat.cache.ultimas-mensagens.ttl-s:30}")
+    private long ttlSegundos;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, Cauda> cache;
+
+
+    @PostConstruct
+    void inicializar() {
+        cache = Caffeine.newBuilder()
+                .maximumWeight(memoriaMaximaBytes)
+                .weigher((String conversationId, Cauda cauda) -> cauda.peso())
+                .expireAfter(new Expiry<String, Cauda>() {
+                    @Override
+                    public long expireAfterCreate(String conversationId, Cauda cauda, long agora) {
+                        return Math.max(0, cauda.expiraEm() - agora);
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String conversationId, Cauda cauda, long agora, long restante) {
+                        return Math.max(0, cauda.expiraEm() - agora);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String conversationId, Cauda cauda, long agora, long restante) {
+                        return restante;
+                    }
+                })
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "ultimas_mensagens");
+        Gauge.builder("chat.cache.ultimas.mensagens.memoria", cache,
+                      c -> c.policy().eviction().map(e -> e.weightedSize().orElse(0)).orElse(0L))
+             .baseUnit("bytes")
+             .register(meterRegistry);
+    }
+
+
+    public int mensagensPorConversa() {
+        return mensagensPorConversa;
+    }
+
+    /**
+     * Primeira página da conversa, se o cache consegue respondê-la sozinho.
+     * A lista devolvida pode ter pageSize + 1 itens: o item extra indica que
+     * existe próxima página.
+     */
+    public Optional<List<Message>> primeiraPagina(String conversationId, int pageSize) {
+        Cauda cauda = cache.getIfPresent(conversationId);
+        if (cauda == null || !cauda.completa()) {
+            return Optional.empty();
+        }
+
+        List<Message> mensagens = cauda.mensagens();
+        if (mensagens.size() > pageSize) {
+            return Optional.of(mensagens.subList(0, pageSize + 1));
+        }
+        // Menos mensagens que a página: só dá para responder se a cauda é o histórico todo
+        return cauda.historicoInteiro() ? Optional.of(mensagens) : Optional.empty();
+    }
+
+    /**
+     * Guarda a cauda lida do MongoDB (mais recente primeiro, até
+     * mensagensPorConversa() + 1 itens), mesclando com o que o Worker já tiver
+     * acrescentado nesse meio tempo.
+     */
+    public void carregar(String conversationId, List<Message> lidasDoMongo) {
+        boolean historicoInteiro = lidasDoMongo.size() <= mensagensPorConversa;
+
+        cache.asMap().compute(conversationId, (id, atual) -> {
+            List<Message> mescladas = atual == null ? lidasDoMongo : mesclar(atual.mensagens(), lidasDoMongo);
+            return criarCauda(mescladas, true, historicoInteiro, novoPrazo());
+        });
+    }
+
+    /**
+     * Chamado depois que novas mensagens foram gravadas.
+     */
+    public void acrescentar(Collection<Message> novas) {
+        Map<String, List<Message>> porConversa = new LinkedHashMap<>();
+        for (Message mensagem : novas) {
+            porConversa.computeIfAbsent(mensagem.getConversationId(), c -> new ArrayList<>()).add(mensagem);
+        }
+
+        porConversa.forEach((conversationId, mensagens) ->
+            cache.asMap().compute(conversationId, (id, atual) -> atual == null
+                    ? criarCauda(mesclar(List.of(), mensagens), false, false, novoPrazo())
+                    : criarCauda(mesclar(atual.mensagens(), mensagens), atual.completa(), atual.historicoInteiro(), atual.expiraEm())));
+    }
+
+    /**
+     * Descarta todas as caudas (ex: este nó pode ter perdido mensagens gravadas em outro).
+     */
+    public void esvaziar() {
+        cache.invalidateAll();
+    }
+
+
+    // Mesmo relógio que o Caffeine usa por padrão (System.nanoTime)
+    private long novoPrazo() {
+        return System.nanoTime() + Duration.ofSeconds(ttlSegundos).toNanos();
+    }
+
+    private Cauda criarCauda(List<Message> mensagens, boolean completa, boolean historicoInteiro, long expiraEm) {
+        // Ao descartar mensagens antigas a cauda deixa de ser o histórico inteiro
+        if (mensagens.size() > mensagensPorConversa + 1) {
+            mensagens = mensagens.subList(0, mensagensPorConversa + 1);
+            historicoInteiro = false;
+        }
+        return new Cauda(List.copyOf(mensagens), completa, historicoInteiro, expiraEm);
+    }
+
+    private static List<Message> mesclar(List<Message> a, List<Message> b) {
+        Map<String, Message> porId = new LinkedHashMap<>();
+        a.forEach(m -> porId.put(m.getId(), m));
+        b.forEach(m -> porId.put(m.getId(), m));
+
+        List<Message> mescladas = new ArrayList<>(porId.values());
+        mescladas.sort(MAIS_RECENTE_PRIMEIRO);
+        return mescladas;
+    }
+
+
+    /**
+     * Últimas mensagens de uma conversa (imutável; cada alteração cria outra).
+     *
+     * @param completa         carregada do MongoDB, pode servir leituras
+     * @param historicoInteiro não existem mensagens mais antigas que as da cauda
+     * @param expiraEm         prazo (System.nanoTime) fixado na carga do MongoDB
+     */
+    private record Cauda(List<Message> mensagens, boolean completa, boolean historicoInteiro, long expiraEm) {
+
+        int peso() {
+            int peso = PESO_FIXO_CAUDA;
+            for (Message mensagem : mensagens) {
+                peso += PESO_FIXO_MENSAGEM + mensagem.getSerializedSize();
+            }
+            return peso;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.chat.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.chat.config.RabbitMQConfig;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Mantém o CacheUltimasMensagens de todos os nós atualizado.
+ *
+ * O Worker que grava um lote publica as mensagens novas uma única vez na
+ * EXCHANGE_CACHE_MENSAGENS (fanout); cada nó recebe a cópia na sua fila e a
+ * acrescenta ao próprio cache. Acrescentar é idempotente (mescla pelo id),
+ * então o nó que gravou pode receber de volta o que já acrescentou.
+ *
+ * Enquanto o nó está desconectado do Broker as cópias se perdem (a fila é
+ * exclusiva e some com a conexão), por isso ao reconectar o cache é esvaziado
+ * inteiro. O que sobra (uma cópia perdida com a conexão de pé) fica limitado
+ * pelo TTL do cache.
+ */
+@Component
+public class ReplicadorCache implements ConnectionListener {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicadorCache.class);
+
+
+    @Autowired
+    private CacheUltimasMensagens cacheUltimasMensagens;
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    private RabbitTemplate rabbitTemplate;
+
+
+    @PostConstruct
+    void inicializar() {
+        rabbitTemplate = new RabbitTemplate(connectionFactory);
+        connectionFactory.addConnectionListener(this);
+    }
+
+    /**
+     * Acrescenta as mensagens no cache deste nó e publica para os outros.
+     */
+    public void publicar(Collection<br.com.meuprojeto.chat.v1.Message> novas) {
+        cacheUltimasMensagens.acrescentar(novas);
+
+        // Um único envio por lote: as mensagens vão em sequência, cada uma com o seu tamanho
+        ByteArrayOutputStream corpo = new ByteArrayOutputStream();
+        try {
+            for (br.com.meuprojeto.chat.v1.Message mensagem : novas) {
+                mensagem.writeDelimitedTo(corpo);
+            }
+        } catch (IOException e) {
+            // ByteArrayOutputStream não lança IOException
+            throw new IllegalStateException(e);
+        }
+
+        rabbitTemplate.send(RabbitMQConfig.EXCHANGE_CACHE_MENSAGENS, "", MessageBuilder.withBody(corpo.toByteArray())
+                .setContentType(MessageProperties.CONTENT_TYPE_BYTES)
+                .setDeliveryMode(MessageDeliveryMode.NON_PERSISTENT)
+                .build());
+    }
+
+    @RabbitListener(queues = "#{filaCacheMensagensNo.name}")
+    public void receber(Message mensagem) {
+        List<br.com.meuprojeto.chat.v1.Message> novas = new ArrayList<>();
+        try (InputStream entrada = new ByteArrayInputStream(mensagem.getBody())) {
+            br.com.meuprojeto.chat.v1.Message proxima;
+            while ((proxima = br.com.meuprojeto.chat.v1.Message.parseDelimitedFrom(entrada)) != null) {
+                novas.add(proxima);
+            }
+        } catch (IOException e) {
+            log.error("[CACHE] Lote de mensagens invalido descartado: {}", e.getMessage());
+            return;
+        }
+        cacheUltimasMensagens.acrescentar(novas);
+    }
+
+    /**
+     * Conexão (re)estabelecida: o que foi publicado enquanto a fila deste nó
+     * não existia se perdeu, então nenhuma cauda do cache é mais confiável.
+     */
+    @Override
+    public void onCreate(Connection connection) {
+        cacheUltimasMensagens.esvaziar();
+    }
+}
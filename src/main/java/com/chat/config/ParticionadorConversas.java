@@ -0,0 +1,37 @@
+package com.chat.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Distribui as conversas entre as partições (filas) de mensagens de texto.
+ *
+ * Todas as mensagens de uma conversa caem sempre na mesma partição, que tem um
+ * único consumidor ativo; assim a ordem dentro da conversa é preservada enquanto
+ * partições diferentes são processadas em paralelo. O hash precisa ser estável
+ * entre JVMs, por isso usamos String.hashCode (definido pela especificação).
+ */
+@Component
+public class ParticionadorConversas {
+
+    @Value("${chat.particoes.quantidade:8}")
+    private int quantidadeParticoes;
+
+
+    public int quantidade() {
+        return quantidadeParticoes;
+    }
+
+    public int particao(String conversationId) {
+        // Mistura os bits do hashCode para espalhar ids sequenciais (ex: "grupo-1", "grupo-2")
+        int h = conversationId.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return Math.floorMod(h, quantidadeParticoes);
+    }
+
+    public String routingKeyTexto(String conversationId) {
+        return RabbitMQConfig.routingKeyTexto(particao(conversationId), conversationId);
+    }
+}
@@ -1,11 +1,34 @@
 package com.chat.config;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.amqp.AmqpRejectAndDontRequeueException;
+import org.springframework.amqp.core.AcknowledgeMode;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Base64UrlNamingStrategy;
 import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
+import org.springframework.amqp.core.Declarable;
+import org.springframework.amqp.core.Declarables;
+import org.springframework.amqp.core.DirectExchange;
+import org.springframework.amqp.core.FanoutExchange;
+import org.springframework.amqp.core.HeadersExchange;
 import org.springframework.amqp.core.Queue;
+import org.springframework.amqp.core.QueueBuilder;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.config.RetryInterceptorBuilder;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.retry.MessageBatchRecoverer;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.retry.policy.SimpleRetryPolicy;
+
+import com.chat.worker.ReenvioNaoConfirmadoException;
 
 /**
  * Esta classe define a topologia do RabbitMQ (Exchanges, Filas e Bindings).
@@ -16,8 +39,78 @@ public class RabbitMQConfig {
 
     // Nomes para nossas "caixas de correio"
     public static final String EXCHANGE_MENSAGENS = "exchanges.mensagens.topico";
+
+    // Mensagens de texto são particionadas por conversa: uma fila por partição
+    // ("queue.mensagens.texto.p0", "queue.mensagens.texto.p1", ...), cada uma
+    // ligada à rota "rota.texto.p<N>.#". Ver ParticionadorConversas.
     public static final String QUEUE_MENSAGENS_TEXTO = "queue.mensagens.texto";
-    public static final String ROUTING_KEY_TEXTO = "rota.texto.#";
+    public static final String ROUTING_KEY_TEXTO = "rota.texto";
+
+    // Id do usuário que enviou a mensagem (vem do UsuarioInterceptor no Frontend)
+    public static final String HEADER_REMETENTE = "x-remetente";
+
+    // Retentativas com atraso crescente: a mensagem que falhou vai para a fila de
+    // retentativa do nível N (TTL próprio) e, quando o TTL vence, é devolvida pelo
+    // dead-letter à exchange principal com a routing key original.
+    public static final String EXCHANGE_RETENTATIVAS = "exchanges.mensagens.retentativas";
+    public static final String QUEUE_RETENTATIVAS_TEXTO = "queue.mensagens.texto.retentativa";
+    public static final String HEADER_NIVEL_RETENTATIVA = "x-nivel-retentativa";
+    public static final String HEADER_TENTATIVAS = "x-tentativas";
+
+    // Destino final das mensagens que não podem ser processadas (dead letter queue)
+    public static final String EXCHANGE_DLX = "exchanges.mensagens.dlx";
+    public static final String QUEUE_MENSAGENS_DLQ = "queue.mensagens.texto.dlq";
+    public static final String HEADER_MOTIVO_FALHA = "x-motivo-falha";
+    public static final String HEADER_ERRO = "x-erro";
+
+    // Eventos para os streams do SubscribeToEvents, roteados pelo id do usuário.
+    // Cada nó do Frontend tem sua fila (auto-delete) e só liga nela os usuários
+    // que estão conectados nele (ver RoteadorEventos).
+    public static final String EXCHANGE_EVENTOS = "exchanges.eventos";
+    public static final String PREFIXO_QUEUE_EVENTOS = "queue.eventos.";
+    // Presença vai na mesma exchange, com routing key "presenca:<user_id>" (o observado);
+    // cada nó liga os usuários que alguém conectado nele está observando (WatchPresence)
+    public static final String PREFIXO_ROTA_PRESENCA = "presenca:";
+
+    // Sinais efêmeros (ex: "digitando..."): mesma roteamento por usuário, mas numa
+    // exchange não durável e numa fila à parte por nó, limitada e descartando os
+    // mais antigos, para o volume deles nunca atrasar os eventos de mensagens
+    public static final String EXCHANGE_EFEMEROS = "exchanges.efemeros";
+    public static final String PREFIXO_QUEUE_EFEMEROS = "queue.efemeros.";
+
+    // Mensagens recém-gravadas, para todos os nós atualizarem o cache das
+    // últimas mensagens (ver ReplicadorCache): fanout, cada nó com sua fila
+    public static final String EXCHANGE_CACHE_MENSAGENS = "exchanges.cache.mensagens";
+    public static final String PREFIXO_QUEUE_CACHE_MENSAGENS = "queue.cache.mensagens.";
+
+    // Container factory dos listeners que consomem em lote
+    public static final String LOTE_CONTAINER_FACTORY = "loteListenerContainerFactory";
+
+    // Container factory do listener de sinais efêmeros (prefetch pequeno)
+    public static final String EFEMEROS_CONTAINER_FACTORY = "efemerosListenerContainerFactory";
+
+
+    // Quantas entregas o Worker agrupa por lote
+    @Value("${chat.worker.lote.tamanho:200}")
+    private int tamanhoLoteWorker;
+
+    // Tempo máximo (ms) esperando o lote encher antes de processar o que já chegou
+    @Value("${chat.worker.lote.espera-ms:50}")
+    private long esperaLoteWorkerMs;
+
+    // Reprocessamento do lote cujo reenvio (retentativa/DLQ) o Broker não confirmou
+    @Value("${chat.worker.reenvio.tentativas:5}")
+    private int tentativasReenvio;
+
+    @Value("${chat.worker.reenvio.espera-inicial-ms:1000}")
+    private long esperaInicialReenvioMs;
+
+    @Value("${chat.worker.reenvio.espera-max-ms:30000}")
+    private long esperaMaximaReenvioMs;
+
+    // Atraso de cada nível de retentativa; depois do último a mensagem vai para a DLQ
+    @Value("${chat.retentativas.atrasos-ms:1000,10000,60000}")
+    private long[] atrasosRetentativaMs;
 
 
     // TODO: ADICIONAR FILAS E ROTAS PARA MENSAGENS DE MIDIA E EVENTOS DE STATUS
@@ -32,21 +125,210 @@ public class RabbitMQConfig {
     }
 
     /**
-     * Define a Fila (Queue) onde as mensagens de texto ficarão
-     * esperando o Worker consumir.
+     * Define as Filas (uma por partição) onde as mensagens de texto ficarão
+     * esperando o Worker consumir, com seus bindings.
+     *
+     * As filas usam "single active consumer": mesmo com vários nós do Worker
+     * inscritos, só um consome cada partição por vez (os outros ficam de
+     * reserva), o que mantém a ordem das mensagens de cada conversa.
+     */
+    @Bean
+    public Declarables particoesMensagensTexto(ParticionadorConversas particionador) {
+        List<Declarable> declaraveis = new ArrayList<>();
+
+        for (int particao = 0; particao < particionador.quantidade(); particao++) {
+            Queue fila = QueueBuilder.durable(filaTexto(particao))
+                .singleActiveConsumer()
+                .deadLetterExchange(EXCHANGE_DLX)
+                .build();
+
+            declaraveis.add(fila);
+            declaraveis.add(BindingBuilder
+                .bind(fila)
+                .to(exchangeMensages())
+                .with(ROUTING_KEY_TEXTO + ".p" + particao + ".#"));
+        }
+        return new Declarables(declaraveis);
+    }
+
+    /**
+     * Topologia de retentativas: uma HeadersExchange e uma fila por nível, cada
+     * uma com seu TTL e dead-letter de volta para a exchange principal. Como a
+     * HeadersExchange roteia pelo header de nível e não pela routing key, a
+     * mensagem mantém a routing key original e volta para a mesma partição.
+     * A espera acontece no Broker, sem ocupar a thread do consumidor.
+     */
+    @Bean
+    public Declarables retentativasMensagensTexto() {
+        HeadersExchange exchange = new HeadersExchange(EXCHANGE_RETENTATIVAS);
+
+        List<Declarable> declaraveis = new ArrayList<>();
+        declaraveis.add(exchange);
+
+        for (int nivel = 0; nivel < atrasosRetentativaMs.length; nivel++) {
+            Queue fila = QueueBuilder.durable(QUEUE_RETENTATIVAS_TEXTO + "." + nivel)
+                .ttl((int) atrasosRetentativaMs[nivel])
+                .deadLetterExchange(EXCHANGE_MENSAGENS)
+                .build();
+
+            declaraveis.add(fila);
+            declaraveis.add(BindingBuilder
+                .bind(fila)
+                .to(exchange)
+                .where(HEADER_NIVEL_RETENTATIVA).matches(String.valueOf(nivel)));
+        }
+        return new Declarables(declaraveis);
+    }
+
+    /**
+     * Dead letter queue: recebe as mensagens venenosas (que nunca vão ser
+     * processadas, ex: Protobuf inválido), as que esgotaram as retentativas e,
+     * via dead-letter das filas de partição, qualquer entrega rejeitada pelo Worker.
+     */
+    @Bean
+    public Declarables dlqMensagensTexto() {
+        FanoutExchange exchange = new FanoutExchange(EXCHANGE_DLX);
+        Queue fila = QueueBuilder.durable(QUEUE_MENSAGENS_DLQ).build();
+
+        return new Declarables(exchange, fila, BindingBuilder.bind(fila).to(exchange));
+    }
+
+    /**
+     * Exchange dos eventos: direct, routing key = id do usuário destinatário.
+     */
+    @Bean
+    public DirectExchange exchangeEventos() {
+        return new DirectExchange(EXCHANGE_EVENTOS);
+    }
+
+    /**
+     * Fila de eventos deste nó: nome único, exclusiva e auto-delete (some junto
+     * com o nó). Os bindings são criados e removidos em tempo de execução.
+     */
+    @Bean
+    public AnonymousQueue filaEventosNo() {
+        return new AnonymousQueue(new Base64UrlNamingStrategy(PREFIXO_QUEUE_EVENTOS));
+    }
+
+    /**
+     * Exchange dos sinais efêmeros: direct e não durável (nada dela precisa
+     * sobreviver a um restart do Broker).
+     */
+    @Bean
+    public DirectExchange exchangeEfemeros() {
+        return new DirectExchange(EXCHANGE_EFEMEROS, false, false);
+    }
+
+    /**
+     * Fila de sinais efêmeros deste nó: como a de eventos, mas limitada
+     * ("chat.efemeros.fila.max"), descartando os mais antigos quando cheia, e
+     * com TTL curto, já que um "digitando..." atrasado não serve para nada.
+     */
+    @Bean
+    public AnonymousQueue filaEfemerosNo(@Value("${chat.efemeros.fila.max:1000}") int tamanhoMaximo,
+                                         @Value("${chat.efemeros.ttl-ms:5000}") int ttlMs) {
+        return new AnonymousQueue(new Base64UrlNamingStrategy(PREFIXO_QUEUE_EFEMEROS), Map.of(
+            "x-max-length", tamanhoMaximo,
+            "x-overflow", "drop-head",
+            "x-message-ttl", ttlMs));
+    }
+
+    /**
+     * Exchange que replica as mensagens recém-gravadas para o cache de todos
+     * os nós: fanout e não durável, como a dos sinais efêmeros.
+     */
+    @Bean
+    public FanoutExchange exchangeCacheMensagens() {
+        return new FanoutExchange(EXCHANGE_CACHE_MENSAGENS, false, false);
+    }
+
+    /**
+     * Fila deste nó na exchange do cache. O binding é fixo, então o RabbitAdmin
+     * declara os dois de novo a cada reconexão.
      */
     @Bean
-    public Queue queueMensagemTexto() {
-        return new Queue(QUEUE_MENSAGENS_TEXTO, true);
+    public AnonymousQueue filaCacheMensagensNo() {
+        return new AnonymousQueue(new Base64UrlNamingStrategy(PREFIXO_QUEUE_CACHE_MENSAGENS));
+    }
+
+    @Bean
+    public Binding bindingCacheMensagensNo() {
+        return BindingBuilder.bind(filaCacheMensagensNo()).to(exchangeCacheMensagens());
+    }
+
+    public int niveisRetentativa() {
+        return atrasosRetentativaMs.length;
     }
 
+    public static String filaTexto(int particao) {
+        return QUEUE_MENSAGENS_TEXTO + ".p" + particao;
+    }
+
+    public static String routingKeyTexto(int particao, String conversationId) {
+        return ROUTING_KEY_TEXTO + ".p" + particao + "." + conversationId;
+    }
+
+
+    /**
+     * Container factory para listeners em lote: o container junta até
+     * "chat.worker.lote.tamanho" entregas (ou o que chegar em "chat.worker.lote.espera-ms")
+     * e entrega tudo de uma vez ao listener. Com ack AUTO, o lote inteiro é
+     * confirmado com um único basicAck (multiple=true) quando o listener retorna.
+     */
+    @Bean(name = LOTE_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory loteListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory) {
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(tamanhoLoteWorker);
+        factory.setBatchReceiveTimeout(esperaLoteWorkerMs);
+        // O prefetch precisa comportar um lote inteiro
+        factory.setPrefetchCount(tamanhoLoteWorker);
+        // Exceção inesperada no listener não volta para a fila (evita loop de reentrega):
+        // o lote inteiro cai na DLQ, inclusive mensagens que já tinham sido gravadas.
+        // Reprocessar a DLQ é seguro porque o índice único de client_msg_id barra essas
+        // como duplicatas. Falhas esperadas não chegam aqui: o Worker as encaminha uma
+        // a uma (retentativa/DLQ).
+        factory.setDefaultRequeueRejected(false);
+
+        // Se o Broker não confirmar esses reenvios (fila de retentativa sumiu, alarme de
+        // memória), o lote é reprocessado no mesmo consumidor com atraso crescente, o que
+        // segura só esta partição, até "chat.worker.reenvio.tentativas"; depois vai para a
+        // DLQ como qualquer outra falha. Voltar direto para a cabeça da fila repetiria a
+        // mesma falha sem pausa, travando a partição num loop de reentrega.
+        factory.setAdviceChain(RetryInterceptorBuilder.stateless()
+                .retryPolicy(new SimpleRetryPolicy(tentativasReenvio, Map.of(ReenvioNaoConfirmadoException.class, true), true))
+                .backOffOptions(esperaInicialReenvioMs, 2.0, esperaMaximaReenvioMs)
+                .recoverer((MessageBatchRecoverer) (lote, causa) -> {
+                    throw new AmqpRejectAndDontRequeueException("Lote de " + lote.size() + " entregas para a DLQ", causa);
+                })
+                .build());
+        return factory;
+    }
+
+    /**
+     * Listener dos sinais efêmeros: ack automático com prefetch pequeno
+     * ("chat.efemeros.prefetch"). Sem ack o Broker empurraria tudo para o
+     * consumidor e o limite da fila (x-max-length, drop-head, TTL) nunca
+     * valeria; assim o excesso fica na fila, onde é descartado.
+     */
+    @Bean(name = EFEMEROS_CONTAINER_FACTORY)
+    public SimpleRabbitListenerContainerFactory efemerosListenerContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer, ConnectionFactory connectionFactory,
+            @Value("${chat.efemeros.prefetch:20}") int prefetch) {
+
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
 
-    @Bean 
-    public Binding bindindMensagensTexto(){
-        return BindingBuilder
-        .bind(queueMensagemTexto())
-        .to(exchangeMensages())
-        .with(ROUTING_KEY_TEXTO);
+        factory.setAcknowledgeMode(AcknowledgeMode.AUTO);
+        factory.setPrefetchCount(prefetch);
+        // Sinal que falhou não vale ser entregue de novo
+        factory.setDefaultRequeueRejected(false);
+        return factory;
     }
 
 }
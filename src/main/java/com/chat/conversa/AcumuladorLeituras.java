@@ -0,0 +1,173 @@
+package com.chat.conversa;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAccumulator;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.chat.model.ResumoConversa;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Write-behind das marcas de leitura (MarkConversationRead).
+ *
+ * Em grupos ativos todo mundo marca leitura o tempo todo, e cada marca seria
+ * um update no mesmo punhado de resumos. Aqui cada (usuário, conversa) tem um
+ * LongAccumulator com max: as marcas são absorvidas em memória sem lock e a
+ * cada "chat.leituras.descarga-ms" só a maior de cada uma vai para o MongoDB,
+ * num único bulkWrite.
+ *
+ * Como read_seq é uma marca d'água ($max, limitada a last_seq), aplicar a
+ * mesma marca duas vezes ou fora de ordem não muda o resultado. Se o nó cair,
+ * perdem-se no máximo as marcas do último intervalo: o resumo continua na
+ * marca anterior (nunca fica à frente do que foi lido) e o cliente reenvia
+ * a sua ao abrir a conversa de novo.
+ */
+@Component
+public class AcumuladorLeituras {
+
+    private static final Logger log = LoggerFactory.getLogger(AcumuladorLeituras.class);
+
+    public static final String METRICA_PENDENTES = "chat.leituras.pendentes";
+    public static final String METRICA_FALHAS = "chat.leituras.descarga.falhas";
+
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Chave: _id do ResumoConversa ("<user_id>:<conversation_id>")
+    private final Map<String, Marca> marcas = new ConcurrentHashMap<>();
+
+    private Counter falhas;
+
+
+    @PostConstruct
+    void registrarMetricas() {
+        falhas = meterRegistry.counter(METRICA_FALHAS);
+        Gauge.builder(METRICA_PENDENTES, marcas, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Registra que o usuário leu a conversa até "ateSeq".
+     */
+    public void registrar(String userId, String conversationId, long ateSeq) {
+        String chave = ResumoConversa.idDe(userId, conversationId);
+
+        while (true) {
+            Marca marca = marcas.computeIfAbsent(chave, c -> new Marca());
+            marca.lida.accumulate(ateSeq);
+
+            // Se a descarga removeu a entrada no meio do caminho, registra de novo numa nova
+            if (!marca.removida && marcas.get(chave) == marca) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Marca ainda não gravada no MongoDB (0 se não houver), para as leituras
+     * deste nó já refletirem a leitura antes da descarga.
+     */
+    public long pendente(String userId, String conversationId) {
+        Marca marca = marcas.get(ResumoConversa.idDe(userId, conversationId));
+        return marca == null ? 0 : marca.lida.get();
+    }
+
+    @Scheduled(fixedDelayString = "${chat.leituras.descarga-ms:1000}")
+    public void descarregar() {
+
+        List<String> chaves = new ArrayList<>();
+        List<Long> valores = new ArrayList<>();
+        List<WriteModel<Document>> operacoes = new ArrayList<>();
+
+        for (Map.Entry<String, Marca> entrada : marcas.entrySet()) {
+            Marca marca = entrada.getValue();
+            long lida = marca.lida.get();
+
+            if (lida == marca.descarregada) {
+                remover(entrada.getKey(), marca);
+                continue;
+            }
+
+            chaves.add(entrada.getKey());
+            valores.add(lida);
+            operacoes.add(new UpdateOneModel<>(Filters.eq("_id", entrada.getKey()), atualizacao(lida)));
+        }
+
+        if (operacoes.isEmpty()) {
+            return;
+        }
+
+        try {
+            mongoTemplate.getCollection(mongoTemplate.getCollectionName(ResumoConversa.class))
+                    .bulkWrite(operacoes, new BulkWriteOptions().ordered(false));
+        } catch (Exception e) {
+            // Continuam pendentes e vão de novo na próxima descarga
+            falhas.increment();
+            log.error("[LEITURAS] Falha ao gravar {} marcas de leitura: {}", operacoes.size(), e.getMessage());
+            return;
+        }
+
+        for (int i = 0; i < chaves.size(); i++) {
+            Marca marca = marcas.get(chaves.get(i));
+            if (marca != null) {
+                marca.descarregada = Math.max(marca.descarregada, valores.get(i));
+            }
+        }
+    }
+
+    @PreDestroy
+    void descarregarAoEncerrar() {
+        descarregar();
+    }
+
+    // read_seq = max(read_seq, min(lida, last_seq)): a marca nunca volta nem passa da conversa
+    private static List<Bson> atualizacao(long lida) {
+        return List.of(new Document("$set", new Document("read_seq",
+            new Document("$max", List.of(
+                new Document("$ifNull", List.of("$read_seq", 0L)),
+                new Document("$min", List.of(lida, new Document("$ifNull", List.of("$last_seq", 0L)))))))));
+    }
+
+    /**
+     * Remove uma entrada já gravada. A marca "removida" faz um registrar()
+     * concorrente perceber a remoção e registrar de novo numa entrada nova.
+     */
+    private void remover(String chave, Marca marca) {
+        marca.removida = true;
+        if (marca.lida.get() != marca.descarregada) {
+            marca.removida = false;
+            return;
+        }
+        marcas.remove(chave, marca);
+    }
+
+
+    private static final class Marca {
+        final LongAccumulator lida = new LongAccumulator(Math::max, 0);
+        volatile long descarregada;
+        volatile boolean removida;
+    }
+}
@@ -0,0 +1,158 @@
+package com.chat.conversa;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+import com.chat.model.ChatMessage;
+import com.chat.model.Conversa;
+import com.chat.model.ResumoConversa;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Mantém a coleção "conversation_summaries" (ver ResumoConversa) atualizada de
+ * forma incremental a partir de cada lote gravado pelo Worker.
+ *
+ * Cada lote vira um único bulkWrite com um upsert por (participante, conversa).
+ * O update é um pipeline de agregação, para que a decisão de trocar a última
+ * mensagem aconteça no próprio MongoDB, sem ler o resumo antes: ela só é
+ * trocada se tiver seq maior que a atual. Os não lidos saem de last_seq e
+ * read_seq (ver ResumoConversa); quem enviou tem o read_seq avançado até a
+ * própria mensagem.
+ */
+@Component
+public class AtualizadorResumos {
+
+    private static final Logger log = LoggerFactory.getLogger(AtualizadorResumos.class);
+
+    public static final String METRICA_FALHAS = "chat.resumos.falhas";
+
+    private static final Date SEM_ATIVIDADE = new Date(0);
+
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private DiretorioConversas diretorioConversas;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Counter falhas;
+
+
+    @PostConstruct
+    void registrarMetricas() {
+        falhas = meterRegistry.counter(METRICA_FALHAS);
+    }
+
+    /**
+     * Aplica as mensagens recém-gravadas aos resumos dos participantes.
+     * Falhas são registradas e não interrompem o Worker: as mensagens já estão
+     * gravadas e, como last_seq e last_message só avançam, o resumo se corrige
+     * na próxima mensagem da conversa.
+     */
+    public void registrar(List<ChatMessage> persistidas) {
+        if (persistidas.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<ChatMessage>> porConversa = new LinkedHashMap<>();
+        for (ChatMessage mensagem : persistidas) {
+            porConversa.computeIfAbsent(mensagem.getConversationId(), c -> new ArrayList<>()).add(mensagem);
+        }
+
+        try {
+            Map<String, Conversa> conversas = diretorioConversas.buscar(porConversa.keySet());
+
+            List<WriteModel<Document>> operacoes = new ArrayList<>();
+            for (Map.Entry<String, List<ChatMessage>> grupo : porConversa.entrySet()) {
+                montarOperacoes(conversas.get(grupo.getKey()), grupo.getKey(), grupo.getValue(), operacoes);
+            }
+
+            mongoTemplate.getCollection(mongoTemplate.getCollectionName(ResumoConversa.class))
+                    .bulkWrite(operacoes, new BulkWriteOptions().ordered(false));
+
+        } catch (Exception e) {
+            falhas.increment();
+            log.error("[RESUMOS] Falha ao atualizar resumos de {} conversas: {}", porConversa.size(), e.getMessage());
+        }
+    }
+
+    private void montarOperacoes(Conversa conversa, String conversationId, List<ChatMessage> mensagens,
+                                 List<WriteModel<Document>> operacoes) {
+
+        // Maior seq enviada por cada remetente no lote: quem envia já leu a conversa até ali
+        ChatMessage ultima = mensagens.get(0);
+        long primeiraSeq = ultima.getSeq();
+        Map<String, Long> ultimaSeqEnviadaPor = new HashMap<>();
+        for (ChatMessage mensagem : mensagens) {
+            if (mensagem.getSeq() > ultima.getSeq()) {
+                ultima = mensagem;
+            }
+            primeiraSeq = Math.min(primeiraSeq, mensagem.getSeq());
+            ultimaSeqEnviadaPor.merge(mensagem.getSenderId(), mensagem.getSeq(), Math::max);
+        }
+
+        Set<String> participantes = DiretorioConversas.participantes(conversa, ultimaSeqEnviadaPor.keySet());
+
+        Date ultimaAtividade = Date.from(ultima.getTimestamp());
+        Document ultimaMensagem = new Document("message_id", ultima.getId())
+                .append("sender_id", ultima.getSenderId())
+                .append("text", ultima.getContent() != null ? ultima.getContent().getText() : null)
+                .append("sent_at", ultimaAtividade)
+                .append("reply_to_message_id", ultima.getReplyToMessageId());
+
+        for (String usuario : participantes) {
+
+            // Resumo novo começa lido até antes deste lote: só as mensagens dele contam como não lidas
+            Document readSeqAtual = new Document("$ifNull", List.of("$read_seq", primeiraSeq - 1));
+            Long enviadaAte = ultimaSeqEnviadaPor.get(usuario);
+
+            // Valores vindos do usuário vão em $literal: um texto começando com "$" não pode virar expressão
+            Document set = new Document("user_id", new Document("$literal", usuario))
+                    .append("conversation_id", new Document("$literal", conversationId))
+                    .append("last_message", new Document("$cond", List.of(
+                        new Document("$gt", List.of(ultima.getSeq(), new Document("$ifNull", List.of("$last_seq", 0L)))),
+                        new Document("$literal", ultimaMensagem),
+                        "$last_message")))
+                    .append("last_activity", new Document("$max", List.of("$last_activity", ultimaAtividade)))
+                    .append("last_seq", new Document("$max", List.of("$last_seq", ultima.getSeq())))
+                    .append("read_seq", enviadaAte == null
+                        ? readSeqAtual
+                        : new Document("$max", List.of(readSeqAtual, enviadaAte)));
+
+            if (conversa != null) {
+                set.append("name", new Document("$literal", conversa.getName()))
+                   .append("avatar_url", new Document("$literal", conversa.getAvatarUrl()));
+            }
+
+            List<Bson> pipeline = List.of(new Document("$set", set));
+            operacoes.add(new UpdateOneModel<>(
+                Filters.eq("_id", ResumoConversa.idDe(usuario, conversationId)),
+                pipeline,
+                new UpdateOptions().upsert(true)));
+        }
+    }
+}
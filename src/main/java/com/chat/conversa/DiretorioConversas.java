@@ -0,0 +1,97 @@
+package com.chat.conversa;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.chat.model.Conversa;
+import com.chat.repository.ConversaRepository;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Cache dos dados das conversas (nome, avatar, participantes) usados pelo
+ * Worker para atualizar os resumos. Os participantes mudam pouco; o TTL curto
+ * limita por quanto tempo uma alteração demora a aparecer.
+ */
+@Component
+public class DiretorioConversas {
+
+    @Value("${chat.conversas.cache.tamanho-max:100000}")
+    private long tamanhoMaximo;
+
+    @Value("${chat.conversas.cache.ttl-s:60}")
+    private long ttlSegundos;
+
+    @Autowired
+    private ConversaRepository conversaRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Cache<String, Conversa> cache;
+
+
+    @PostConstruct
+    void inicializar() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(tamanhoMaximo)
+                .expireAfterWrite(Duration.ofSeconds(ttlSegundos))
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "conversas");
+    }
+
+    /**
+     * Devolve as conversas encontradas, buscando as que faltam no cache com uma
+     * única consulta. Conversas sem documento em "conversations" ficam de fora.
+     */
+    public Map<String, Conversa> buscar(Collection<String> conversationIds) {
+        return cache.getAll(conversationIds, faltantes -> {
+            Iterable<Conversa> encontradas = conversaRepository.findAllById(List.copyOf(faltantes));
+            return StreamSupport.stream(encontradas.spliterator(), false)
+                    .collect(Collectors.toMap(Conversa::getId, Function.identity()));
+        });
+    }
+
+    /**
+     * Se "userId" é membro da conversa. Na falta do cache, consulta o MongoDB.
+     */
+    public boolean participa(String userId, String conversationId) {
+        return membro(buscar(List.of(conversationId)).get(conversationId), userId);
+    }
+
+    /**
+     * Conversa sem documento em "conversations" não tem membros.
+     */
+    public static boolean membro(Conversa conversa, String userId) {
+        return conversa != null && conversa.getMemberIds() != null && conversa.getMemberIds().contains(userId);
+    }
+
+    /**
+     * Participantes de uma conversa. Sem documento em "conversations", os
+     * participantes conhecidos são os remetentes das mensagens.
+     */
+    public static Set<String> participantes(Conversa conversa, Collection<String> remetentes) {
+        Set<String> participantes = new LinkedHashSet<>(remetentes);
+        if (conversa != null) {
+            participantes.addAll(conversa.getMemberIds());
+        }
+        return participantes;
+    }
+}
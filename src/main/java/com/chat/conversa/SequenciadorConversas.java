@@ -0,0 +1,49 @@
+package com.chat.conversa;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Atribui a cada mensagem gravada um número de sequência crescente dentro da
+ * sua conversa (1, 2, 3...). Com ele o unread_count de um usuário é só
+ * "última seq da conversa - última seq lida", sem contar documentos.
+ *
+ * O contador de cada conversa fica na coleção "conversation_sequences". O
+ * Worker reserva uma faixa por conversa a cada lote (um único findAndModify com
+ * $inc), então o custo não cresce com o tamanho do lote.
+ *
+ * A faixa só é reservada depois do insert, para as mensagens efetivamente
+ * gravadas, então duplicatas e retentativas não consomem seq. Sobra um buraco
+ * só se o MongoDB falhar entre a reserva e a gravação da seq; aí o
+ * unread_count conta uma a mais até o usuário ler a conversa.
+ */
+@Component
+public class SequenciadorConversas {
+
+    public static final String COLECAO = "conversation_sequences";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+
+    /**
+     * Reserva "quantidade" números consecutivos para a conversa e devolve o
+     * primeiro deles.
+     */
+    public long reservar(String conversationId, int quantidade) {
+        Document contador = mongoTemplate.findAndModify(
+            Query.query(Criteria.where("_id").is(conversationId)),
+            new Update().inc("last_seq", (long) quantidade),
+            FindAndModifyOptions.options().upsert(true).returnNew(true),
+            Document.class,
+            COLECAO);
+
+        return ((Number) contador.get("last_seq")).longValue() - quantidade + 1;
+    }
+}
@@ -0,0 +1,194 @@
+package com.chat.dedup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Filtro de Bloom com janela de tempo para os client_message_id vistos recentemente.
+ *
+ * São mantidas duas gerações de tamanho fixo: as inserções vão para a geração
+ * atual e as consultas olham as duas. A cada "chat.dedup.janela-ms" a geração
+ * anterior é descartada, então um id é lembrado por no mínimo uma janela e no
+ * máximo duas, e a memória usada nunca passa de duas gerações.
+ *
+ * Uma resposta "não contém" é definitiva; "talvez contenha" precisa ser
+ * confirmada no MongoDB.
+ */
+@Component
+public class FiltroDuplicatas {
+
+    // Ids esperados por janela; junto com a taxa de falso positivo define o tamanho do filtro
+    @Value("${chat.dedup.capacidade:1000000}")
+    private long capacidade;
+
+    @Value("${chat.dedup.taxa-falso-positivo:0.01}")
+    private double taxaFalsoPositivo;
+
+    @Value("${chat.dedup.janela-ms:600000}")
+    private long janelaMs;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private int totalBits;
+    private int quantidadeHashes;
+
+    private volatile Geracao atual;
+    private volatile Geracao anterior;
+
+    private Counter consultas;
+    private Counter possiveisDuplicatas;
+    private Counter duplicatasConfirmadas;
+    private Counter falsosPositivos;
+
+
+    @PostConstruct
+    void inicializar() {
+        // Fórmulas clássicas: m = -n ln(p) / ln(2)^2  e  k = m/n ln(2)
+        long bits = (long) Math.ceil(-capacidade * Math.log(taxaFalsoPositivo) / (Math.log(2) * Math.log(2)));
+        totalBits = (int) Math.min(Math.max(bits, Long.SIZE), (long) Integer.MAX_VALUE - Long.SIZE);
+        quantidadeHashes = Math.max(1, (int) Math.round((double) totalBits / capacidade * Math.log(2)));
+
+        long agora = System.currentTimeMillis();
+        atual = new Geracao(totalBits, agora);
+        anterior = new Geracao(totalBits, agora);
+
+        consultas = meterRegistry.counter("chat.dedup.filtro.consultas");
+        possiveisDuplicatas = meterRegistry.counter("chat.dedup.filtro.possiveis.duplicatas");
+        duplicatasConfirmadas = meterRegistry.counter("chat.dedup.filtro.duplicatas.confirmadas");
+        falsosPositivos = meterRegistry.counter("chat.dedup.filtro.falsos.positivos");
+
+        Gauge.builder("chat.dedup.filtro.tamanho", this, FiltroDuplicatas::tamanho)
+             .description("Ids registrados nas duas gerações do filtro")
+             .register(meterRegistry);
+        Gauge.builder("chat.dedup.filtro.memoria", this, f -> 2L * f.totalBits / Byte.SIZE)
+             .baseUnit("bytes")
+             .register(meterRegistry);
+        Gauge.builder("chat.dedup.filtro.falso.positivo.estimado", this, FiltroDuplicatas::taxaFalsoPositivoEstimada)
+             .register(meterRegistry);
+    }
+
+
+    /**
+     * false: o id com certeza não foi visto na janela. true: talvez tenha sido.
+     */
+    public boolean talvezContenha(String clientMessageId) {
+        rotacionarSeNecessario();
+        consultas.increment();
+
+        long hash = hash64(clientMessageId);
+        boolean talvez = atual.contem(hash, quantidadeHashes) || anterior.contem(hash, quantidadeHashes);
+        if (talvez) {
+            possiveisDuplicatas.increment();
+        }
+        return talvez;
+    }
+
+    public void adicionar(String clientMessageId) {
+        rotacionarSeNecessario();
+        atual.adicionar(hash64(clientMessageId), quantidadeHashes);
+    }
+
+    /**
+     * Registra o resultado da confirmação no MongoDB de possíveis duplicatas,
+     * para acompanhar a taxa real de falsos positivos.
+     */
+    public void registrarConfirmacao(int possiveis, int confirmadas) {
+        duplicatasConfirmadas.increment(confirmadas);
+        falsosPositivos.increment(possiveis - confirmadas);
+    }
+
+
+    private void rotacionarSeNecessario() {
+        long agora = System.currentTimeMillis();
+        if (agora - atual.inicio < janelaMs) {
+            return;
+        }
+        synchronized (this) {
+            if (agora - atual.inicio >= janelaMs) {
+                anterior = atual;
+                atual = new Geracao(totalBits, agora);
+            }
+        }
+    }
+
+    private double tamanho() {
+        return atual.insercoes.get() + anterior.insercoes.get();
+    }
+
+    private double taxaFalsoPositivoEstimada() {
+        double pAtual = atual.taxaFalsoPositivo(quantidadeHashes);
+        double pAnterior = anterior.taxaFalsoPositivo(quantidadeHashes);
+        return 1 - (1 - pAtual) * (1 - pAnterior);
+    }
+
+    // FNV-1a de 64 bits seguido do finalizador do MurmurHash3 para espalhar os bits
+    private static long hash64(String valor) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : valor.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+
+    /**
+     * Uma geração do filtro: vetor de bits sem locks (AtomicLongArray).
+     */
+    private static final class Geracao {
+
+        private final AtomicLongArray palavras;
+        private final int totalBits;
+        private final long inicio;
+        private final AtomicLong insercoes = new AtomicLong();
+
+        Geracao(int totalBits, long inicio) {
+            this.palavras = new AtomicLongArray((totalBits + Long.SIZE - 1) / Long.SIZE);
+            this.totalBits = totalBits;
+            this.inicio = inicio;
+        }
+
+        // Double hashing (Kirsch-Mitzenmacher): posição_i = h1 + i * h2
+        boolean contem(long hash, int quantidadeHashes) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= quantidadeHashes; i++) {
+                int posicao = Math.floorMod(h1 + i * h2, totalBits);
+                if ((palavras.get(posicao >>> 6) & (1L << posicao)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void adicionar(long hash, int quantidadeHashes) {
+            int h1 = (int) hash;
+            int h2 = (int) (hash >>> 32);
+            for (int i = 1; i <= quantidadeHashes; i++) {
+                int posicao = Math.floorMod(h1 + i * h2, totalBits);
+                palavras.getAndAccumulate(posicao >>> 6, 1L << posicao, (a, b) -> a | b);
+            }
+            insercoes.incrementAndGet();
+        }
+
+        double taxaFalsoPositivo(int quantidadeHashes) {
+            return Math.pow(1 - Math.exp(-(double) quantidadeHashes * insercoes.get() / totalBits), quantidadeHashes);
+        }
+    }
+}
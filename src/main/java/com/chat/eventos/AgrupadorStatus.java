@@ -0,0 +1,198 @@
+package com.chat.eventos;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.protobuf.Timestamp;
+
+import br.com.meuprojeto.chat.v1.Message;
+import br.com.meuprojeto.chat.v1.MessageStatus;
+import br.com.meuprojeto.chat.v1.MessageStatusUpdate;
+import br.com.meuprojeto.chat.v1.ServerEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Agrupa os MessageStatusUpdate antes de enviá-los ao remetente da mensagem.
+ *
+ * Num grupo movimentado, cada mensagem gera um DELIVERED e logo depois um READ
+ * de cada membro. Em vez de um evento para cada, os status ficam numa janela
+ * curta ("chat.eventos.status.janela-ms") por (remetente, mensagem, membro) e
+ * só o mais avançado sai: READ substitui DELIVERED, nunca o contrário. Um
+ * cache curto do último status enviado evita repetir (ou regredir) um status
+ * que chega depois da janela, como o DELIVERED de um segundo dispositivo.
+ *
+ * Os status vêm das entregas nos streams deste nó (HubEventos) e do
+ * MarkConversationRead. Saem numerados pelo DiarioEventos, então também são
+ * reenviados numa retomada.
+ *
+ * A numeração espera o MongoDB, então a descarga roda numa thread própria e
+ * não no agendador compartilhado do Spring.
+ */
+@Component
+public class AgrupadorStatus implements HubEventos.OuvinteEntregas {
+
+    private static final Logger log = LoggerFactory.getLogger(AgrupadorStatus.class);
+
+    public static final String METRICA_AGRUPADOS = "chat.eventos.status.agrupados";
+
+
+    @Autowired
+    private HubEventos hubEventos;
+
+    @Autowired
+    private DiarioEventos diarioEventos;
+
+    @Autowired
+    private RoteadorEventos roteadorEventos;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.eventos.status.enviados.ttl-s:600}")
+    private long ttlEnviadosSegundos;
+
+    @Value("${chat.eventos.status.janela-ms:250}")
+    private long janelaMs;
+
+    // Chave: "<remetente>|<message_id>|<membro>"
+    private final Map<String, Pendente> pendentes = new ConcurrentHashMap<>();
+
+    // Último status já enviado para cada chave
+    private Cache<String, MessageStatus> enviados;
+
+    private Counter agrupados;
+
+    private final ScheduledExecutorService executor =
+            Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "agrupador-status"));
+
+
+    @PostConstruct
+    void inicializar() {
+        enviados = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofSeconds(ttlEnviadosSegundos))
+                .maximumSize(1_000_000)
+                .build();
+        agrupados = meterRegistry.counter(METRICA_AGRUPADOS);
+        hubEventos.observarEntregas(this);
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                descarregar();
+            } catch (RuntimeException e) {
+                // Uma exceção que escapasse cancelaria as próximas descargas
+                log.error("[EVENTOS] Falha ao descarregar status: {}", e.getMessage());
+            }
+        }, janelaMs, janelaMs, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    void encerrar() {
+        executor.shutdownNow();
+    }
+
+    @Override
+    public void mensagemEntregue(String userId, Message mensagem) {
+        registrar(mensagem.getSenderId(), mensagem.getId(), userId, MessageStatus.DELIVERED);
+    }
+
+    /**
+     * Registra que "membro" mudou o status da mensagem; "remetente" é quem recebe o evento.
+     */
+    public void registrar(String remetente, String messageId, String membro, MessageStatus status) {
+        if (remetente.isEmpty() || remetente.equals(membro)) {
+            return;
+        }
+
+        Pendente novo = new Pendente(remetente, messageId, membro, status, Instant.now());
+        pendentes.merge(chave(remetente, messageId, membro), novo, (atual, chegando) -> {
+            agrupados.increment();
+            return ordem(chegando.status) > ordem(atual.status) ? chegando : atual;
+        });
+    }
+
+    void descarregar() {
+        if (pendentes.isEmpty()) {
+            return;
+        }
+
+        Map<String, List<ServerEvent.Builder>> porRemetente = new LinkedHashMap<>();
+        for (Map.Entry<String, Pendente> entrada : pendentes.entrySet()) {
+            Pendente pendente = entrada.getValue();
+            if (!pendentes.remove(entrada.getKey(), pendente)) {
+                // Atualizado no meio do caminho: sai na próxima janela
+                continue;
+            }
+
+            MessageStatus jaEnviado = enviados.getIfPresent(entrada.getKey());
+            if (jaEnviado != null && ordem(jaEnviado) >= ordem(pendente.status)) {
+                agrupados.increment();
+                continue;
+            }
+            enviados.put(entrada.getKey(), pendente.status);
+
+            Timestamp quando = Timestamp.newBuilder()
+                    .setSeconds(pendente.quando.getEpochSecond())
+                    .setNanos(pendente.quando.getNano())
+                    .build();
+            porRemetente.computeIfAbsent(pendente.remetente, r -> new ArrayList<>())
+                    .add(ServerEvent.newBuilder()
+                            .setEventTime(quando)
+                            .setStatusUpdate(MessageStatusUpdate.newBuilder()
+                                    .setMessageId(pendente.messageId)
+                                    .setNewStatus(pendente.status)
+                                    .setUserIdAffected(pendente.membro)
+                                    .setUpdatedAt(quando)));
+        }
+
+        if (porRemetente.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (Map.Entry<String, List<ServerEvent>> entrada : diarioEventos.registrar(porRemetente).entrySet()) {
+                for (ServerEvent evento : entrada.getValue()) {
+                    roteadorEventos.publicar(entrada.getKey(), evento);
+                }
+            }
+        } catch (Exception e) {
+            // Status são informativos: o cliente volta a vê-los ao consultar a conversa
+            log.error("[EVENTOS] Falha ao publicar status de {} remetentes: {}", porRemetente.size(), e.getMessage());
+        }
+    }
+
+    private static String chave(String remetente, String messageId, String membro) {
+        return remetente + "|" + messageId + "|" + membro;
+    }
+
+    // READ > DELIVERED > SENT; FAILED não vem dos membros e fica por último
+    static int ordem(MessageStatus status) {
+        return switch (status) {
+            case READ -> 3;
+            case DELIVERED -> 2;
+            case SENT -> 1;
+            default -> 0;
+        };
+    }
+
+
+    private record Pendente(String remetente, String messageId, String membro, MessageStatus status, Instant quando) {
+    }
+}
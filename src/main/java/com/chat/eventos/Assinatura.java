@@ -0,0 +1,423 @@
+package com.chat.eventos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import br.com.meuprojeto.chat.v1.MessageStatusUpdate;
+import br.com.meuprojeto.chat.v1.ServerEvent;
+import br.com.meuprojeto.chat.v1.ServerEventBatch;
+import io.grpc.Metadata;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+
+/**
+ * Um stream aberto do SubscribeToEvents (um dispositivo de um usuário).
+ *
+ * Várias threads podem entregar eventos ao mesmo tempo, mas o StreamObserver
+ * do gRPC não aceita chamadas concorrentes. Em vez de lock, os eventos entram
+ * numa fila sem bloqueio e só uma thread por vez a esvazia (quem encontrar o
+ * contador "emAndamento" em zero); as outras só enfileiram e seguem. O
+ * esvaziamento para quando o transporte não está pronto (isReady) e recomeça
+ * pelo onReadyHandler, então nada se acumula dentro do Netty.
+ *
+ * A fila é limitada ("chat.eventos.fila.capacidade"). Cheia, aplica as
+ * políticas de excesso configuradas (ver PoliticaExcesso); se nenhuma liberar
+ * espaço, o stream é encerrado com RESOURCE_EXHAUSTED e o id do último evento
+ * entregue no trailer HEADER_ULTIMO_EVENTO, para o cliente reconectar com
+ * last_event_id.
+ *
+ * Numa retomada (last_event_id), a assinatura já é registrada no hub antes de
+ * os eventos perdidos serem buscados, para nada se perder no meio; os eventos
+ * ao vivo que chegam nesse intervalo esperam em "aoVivoNaRetomada" e só entram
+ * na fila depois dos perdidos, sem os repetidos.
+ *
+ * Se o cliente aceitar lotes (SubscribeToEventsRequest.max_batch_size), os
+ * eventos prontos saem juntos num único ServerEvent.batch, até maxLote por
+ * mensagem gRPC. Um lote incompleto espera no máximo esperaLote pelos
+ * próximos; com o transporte ocupado, os eventos se acumulam e o lote
+ * seguinte já sai cheio.
+ */
+public class Assinatura {
+
+    public static final Metadata.Key<String> HEADER_ULTIMO_EVENTO = Metadata.Key.of("x-ultimo-evento", Metadata.ASCII_STRING_MARSHALLER);
+
+    private final String userId;
+    private final ServerCallStreamObserver<ServerEvent> responseObserver;
+    private final HubEventos hub;
+
+    // Mensagens e status, em ordem. Status entram só como chave (ver statusPendentes).
+    private final Queue<Object> fila = new ConcurrentLinkedQueue<>();
+    // Presença vai à parte para a mais antiga poder ser descartada
+    private final Queue<ServerEvent> presencas = new ConcurrentLinkedQueue<>();
+    // Último status de cada (mensagem, usuário) ainda não enviado
+    private final Map<String, ServerEvent> statusPendentes = new ConcurrentHashMap<>();
+
+    private final AtomicInteger tamanho = new AtomicInteger();
+    private final AtomicInteger emAndamento = new AtomicInteger();
+    private volatile boolean excedeu;
+    private volatile boolean encerrada;
+    private volatile String ultimoEnviado = "";
+
+    // Retomada: "retomando" só muda sob a trava, junto com a lista
+    private final Object travaRetomada = new Object();
+    private volatile boolean retomando;
+    private List<ServerEvent> aoVivoNaRetomada;
+    private long ultimoRetomado;
+
+
+    // Lote negociado no SubscribeToEvents (maxLote <= 1 = um evento por mensagem gRPC)
+    private final int maxLote;
+    private final long esperaLoteNanos;
+    // Quando a fila deixou de estar vazia: limite de espera de um lote incompleto
+    private volatile long pendenteDesde;
+    private final AtomicBoolean descargaAgendada = new AtomicBoolean();
+
+
+    Assinatura(String userId, ServerCallStreamObserver<ServerEvent> responseObserver, HubEventos hub,
+               int maxLote, long esperaLoteMs) {
+        this.userId = userId;
+        this.responseObserver = responseObserver;
+        this.hub = hub;
+        this.maxLote = maxLote;
+        this.esperaLoteNanos = TimeUnit.MILLISECONDS.toNanos(esperaLoteMs);
+    }
+
+    public String userId() {
+        return userId;
+    }
+
+    public boolean encerrada() {
+        return encerrada;
+    }
+
+    /**
+     * Eventos na fila esperando o cliente.
+     */
+    public int backlog() {
+        return tamanho.get();
+    }
+
+    void enviar(ServerEvent evento) {
+        if (encerrada || excedeu) {
+            return;
+        }
+
+        if (retomando) {
+            synchronized (travaRetomada) {
+                if (retomando) {
+                    if (aoVivoNaRetomada.size() < hub.capacidadeFila()) {
+                        aoVivoNaRetomada.add(evento);
+                    } else {
+                        excedeu = true;
+                        hub.registrarDescarte(PoliticaExcesso.DESCONECTAR);
+                    }
+                    return;
+                }
+            }
+        }
+
+        aceitar(evento);
+        esvaziar();
+    }
+
+    private void aceitar(ServerEvent evento) {
+        if (enfileirar(evento)) {
+            hub.registrarOcupacao(tamanho.get());
+        } else {
+            excedeu = true;
+            hub.registrarDescarte(PoliticaExcesso.DESCONECTAR);
+        }
+    }
+
+    /**
+     * Segura os eventos ao vivo até concluirRetomada. Chamar antes de registrar
+     * a assinatura no hub; "ultimoSeq" é o last_event_id do cliente.
+     */
+    public void iniciarRetomada(long ultimoSeq) {
+        synchronized (travaRetomada) {
+            aoVivoNaRetomada = new ArrayList<>();
+            ultimoRetomado = ultimoSeq;
+            retomando = true;
+        }
+    }
+
+    /**
+     * Enfileira os eventos perdidos (em ordem) e, depois deles, os ao vivo que
+     * chegaram durante a busca e ainda não estavam entre os perdidos.
+     */
+    public void concluirRetomada(List<ServerEvent> perdidos) {
+        synchronized (travaRetomada) {
+            if (encerrada) {
+                aoVivoNaRetomada = null;
+                retomando = false;
+                return;
+            }
+            for (ServerEvent evento : perdidos) {
+                aceitar(evento);
+                ultimoRetomado = Math.max(ultimoRetomado, DiarioEventos.seqDe(evento));
+            }
+            for (ServerEvent evento : aoVivoNaRetomada) {
+                long seq = DiarioEventos.seqDe(evento);
+                // Sem seq (evento efêmero) não há como ser repetido
+                if (seq == 0 || seq > ultimoRetomado) {
+                    aceitar(evento);
+                }
+            }
+            aoVivoNaRetomada = null;
+            retomando = false;
+        }
+        esvaziar();
+    }
+
+    /**
+     * A retomada não é possível (ou falhou): encerra o stream com o status dado.
+     * Nada foi enviado ainda, então não concorre com o esvaziamento.
+     */
+    public void falharRetomada(Status status) {
+        synchronized (travaRetomada) {
+            aoVivoNaRetomada = null;
+            retomando = false;
+        }
+        if (encerrada) {
+            return;
+        }
+        encerrar();
+        hub.remover(this);
+        try {
+            responseObserver.onError(status.asRuntimeException());
+        } catch (RuntimeException e) {
+            // Cliente cancelou enquanto a retomada era buscada
+        }
+    }
+
+    private boolean enfileirar(ServerEvent evento) {
+        switch (evento.getPayloadCase()) {
+            case STATUS_UPDATE -> {
+                if (hub.aplica(PoliticaExcesso.AGRUPAR_STATUS)) {
+                    String chave = chaveStatus(evento.getStatusUpdate());
+                    boolean[] agrupado = new boolean[1];
+                    statusPendentes.merge(chave, evento, (atual, chegando) -> {
+                        // Já havia um status pendente dessa mensagem: fica o mais avançado
+                        // (um DELIVERED atrasado não apaga um READ)
+                        agrupado[0] = true;
+                        return AgrupadorStatus.ordem(chegando.getStatusUpdate().getNewStatus())
+                                >= AgrupadorStatus.ordem(atual.getStatusUpdate().getNewStatus()) ? chegando : atual;
+                    });
+                    if (agrupado[0]) {
+                        hub.registrarDescarte(PoliticaExcesso.AGRUPAR_STATUS);
+                        return true;
+                    }
+                    if (!reservar(false)) {
+                        // Só se ninguém agrupou outro status nessa chave enquanto isso
+                        statusPendentes.remove(chave, evento);
+                        return false;
+                    }
+                    fila.offer(chave);
+                    return true;
+                }
+                if (!reservar(false)) {
+                    return false;
+                }
+                fila.offer(evento);
+                return true;
+            }
+            case PRESENCE_UPDATE -> {
+                if (!reservar(hub.aplica(PoliticaExcesso.DESCARTAR_PRESENCA_ANTIGA))) {
+                    // Sem presença antiga para descartar: descarta esta, que é a menos importante
+                    if (hub.aplica(PoliticaExcesso.DESCARTAR_PRESENCA_ANTIGA)) {
+                        hub.registrarDescarte(PoliticaExcesso.DESCARTAR_PRESENCA_ANTIGA);
+                        return true;
+                    }
+                    return false;
+                }
+                presencas.offer(evento);
+                return true;
+            }
+            case EPHEMERAL_SIGNAL -> {
+                // Só entra com o stream em dia (no máximo um lote esperando): atrasado, o sinal já perdeu o sentido
+                if (tamanho.get() >= maxLote || !responseObserver.isReady() || !reservar(false)) {
+                    hub.registrarDescarte(PoliticaExcesso.DESCARTAR_EFEMERO);
+                    return true;
+                }
+                fila.offer(evento);
+                return true;
+            }
+            default -> {
+                if (!reservar(hub.aplica(PoliticaExcesso.DESCARTAR_PRESENCA_ANTIGA))) {
+                    return false;
+                }
+                fila.offer(evento);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reserva uma posição na fila. Cheia, pode liberar espaço descartando a
+     * presença mais antiga.
+     */
+    private boolean reservar(boolean podeDescartarPresenca) {
+        int ocupacao = tamanho.incrementAndGet();
+        if (ocupacao <= hub.capacidadeFila()) {
+            if (ocupacao == 1) {
+                pendenteDesde = System.nanoTime();
+            }
+            hub.backlogTotal().increment();
+            return true;
+        }
+        tamanho.decrementAndGet();
+
+        if (podeDescartarPresenca && presencas.poll() != null) {
+            // A posição da presença descartada passa para o novo evento
+            hub.registrarDescarte(PoliticaExcesso.DESCARTAR_PRESENCA_ANTIGA);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Chamado também pelo onReadyHandler do stream.
+     */
+    public void esvaziar() {
+        if (emAndamento.getAndIncrement() != 0) {
+            // Outra thread já está esvaziando; ela vai ver o incremento e passar de novo
+            return;
+        }
+
+        int pendentes = 1;
+        do {
+            if (excedeu && !encerrada) {
+                desconectar();
+            }
+            while (!encerrada && responseObserver.isReady()) {
+                ServerEvent evento = maxLote > 1 ? proximoLote() : proximo();
+                if (evento == null) {
+                    break;
+                }
+                try {
+                    responseObserver.onNext(evento);
+                } catch (RuntimeException e) {
+                    // Stream já encerrado pelo transporte: o cancelamento remove a assinatura do hub
+                    encerrar();
+                    continue;
+                }
+                if (evento.hasBatch()) {
+                    evento.getBatch().getEventsList().forEach(this::enviado);
+                } else {
+                    enviado(evento);
+                }
+            }
+            pendentes = emAndamento.addAndGet(-pendentes);
+        } while (pendentes != 0);
+    }
+
+    private void enviado(ServerEvent evento) {
+        if (!evento.getEventId().isEmpty()) {
+            ultimoEnviado = evento.getEventId();
+        }
+        if (evento.hasNewMessage() && !userId.equals(evento.getNewMessage().getSenderId())) {
+            hub.confirmarEntrega(userId, evento.getNewMessage());
+        }
+    }
+
+    /**
+     * Até maxLote eventos num único ServerEvent (batch). Um lote incompleto só
+     * sai depois de esperar esperaLote desde que a fila deixou de estar vazia;
+     * antes disso, agenda um novo esvaziamento e devolve null.
+     */
+    private ServerEvent proximoLote() {
+        int disponiveis = tamanho.get();
+        if (disponiveis == 0) {
+            return null;
+        }
+        if (disponiveis < maxLote && esperaLoteNanos > 0) {
+            long falta = pendenteDesde + esperaLoteNanos - System.nanoTime();
+            if (falta > 0) {
+                agendarDescarga(falta);
+                return null;
+            }
+        }
+
+        ServerEventBatch.Builder lote = ServerEventBatch.newBuilder();
+        while (lote.getEventsCount() < maxLote) {
+            ServerEvent evento = proximo();
+            if (evento == null) {
+                break;
+            }
+            lote.addEvents(evento);
+        }
+        if (lote.getEventsCount() == 0) {
+            return null;
+        }
+        // O que sobrou na fila conta a espera a partir de agora
+        pendenteDesde = System.nanoTime();
+
+        // Um só evento vai sem envelope
+        return lote.getEventsCount() == 1 ? lote.getEvents(0) : ServerEvent.newBuilder().setBatch(lote).build();
+    }
+
+    private void agendarDescarga(long atrasoNanos) {
+        if (descargaAgendada.compareAndSet(false, true)) {
+            hub.agendar(() -> {
+                descargaAgendada.set(false);
+                esvaziar();
+            }, atrasoNanos);
+        }
+    }
+
+    private ServerEvent proximo() {
+        Object item = fila.poll();
+        if (item == null) {
+            ServerEvent presenca = presencas.poll();
+            if (presenca != null) {
+                liberar();
+            }
+            return presenca;
+        }
+        liberar();
+
+        if (item instanceof String chave) {
+            return statusPendentes.remove(chave);
+        }
+        return (ServerEvent) item;
+    }
+
+    private void liberar() {
+        tamanho.decrementAndGet();
+        hub.backlogTotal().decrement();
+    }
+
+    // Só é chamado por quem está esvaziando, então não concorre com onNext
+    private void desconectar() {
+        Metadata trailers = new Metadata();
+        trailers.put(HEADER_ULTIMO_EVENTO, ultimoEnviado);
+
+        encerrar();
+        hub.remover(this);
+        responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                                .withDescription("cliente nao acompanhou os eventos; reconecte com last_event_id")
+                                .asRuntimeException(trailers));
+    }
+
+    void encerrar() {
+        if (encerrada) {
+            return;
+        }
+        encerrada = true;
+        hub.backlogTotal().add(-tamanho.getAndSet(0));
+        fila.clear();
+        presencas.clear();
+        statusPendentes.clear();
+    }
+
+    private static String chaveStatus(MessageStatusUpdate status) {
+        return status.getMessageId() + ":" + status.getUserIdAffected();
+    }
+}
@@ -0,0 +1,231 @@
+package com.chat.eventos;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.chat.model.EventoUsuario;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import br.com.meuprojeto.chat.v1.ServerEvent;
+import io.grpc.Status;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Numera e guarda os eventos de cada usuário, para o SubscribeToEvents poder
+ * retomar um stream a partir do last_event_id.
+ *
+ * O event_id é uma sequência por usuário (1, 2, 3...), reservada em faixas na
+ * coleção "user_event_sequences" (um findAndModify com $inc por usuário e por
+ * lote, em paralelo). Sendo contínua, a retomada sabe quando o que o cliente
+ * perdeu já expirou (o primeiro evento guardado não é o seguinte ao dele) e
+ * pede uma ressincronização completa em vez de entregar um buraco.
+ *
+ * Os eventos ficam em "user_events" por um dia (índice TTL) e, no nó onde o
+ * usuário está conectado, nos EventosRecentes.
+ */
+@Component
+public class DiarioEventos {
+
+    private static final Logger log = LoggerFactory.getLogger(DiarioEventos.class);
+
+    public static final String COLECAO_SEQUENCIAS = "user_event_sequences";
+
+    private static final int RESERVAS_EM_PARALELO = 16;
+
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Autowired
+    private EventosRecentes eventosRecentes;
+
+    @Autowired
+    private HubEventos hubEventos;
+
+    @Autowired
+    private RoteadorEventos roteadorEventos;
+
+    @Value("${chat.eventos.reserva-timeout-ms:5000}")
+    private long timeoutReservaMs;
+
+    @Value("${chat.eventos.retomada.binding-timeout-ms:5000}")
+    private long timeoutBindingMs;
+
+
+    /**
+     * Sequência do evento para o usuário, ou 0 se ele não foi numerado
+     * (eventos efêmeros, que não são guardados).
+     */
+    public static long seqDe(ServerEvent evento) {
+        return seqDe(evento.getEventId());
+    }
+
+    public static long seqDe(String id) {
+        if (id.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(id);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Numera os eventos de cada usuário (na ordem da lista) e os guarda. Se a
+     * numeração falhar, lança a exceção: sem event_id o evento não pode ser
+     * retomado. Se só a gravação falhar, os eventos são devolvidos numerados
+     * mesmo assim, e uma retomada que precisaria deles vira ressincronização.
+     */
+    public Map<String, List<ServerEvent>> registrar(Map<String, List<ServerEvent.Builder>> porUsuario) {
+
+        Map<String, Long> primeiros = Flux.fromIterable(porUsuario.entrySet())
+                .flatMap(e -> reservar(e.getKey(), e.getValue().size()).map(primeiro -> Map.entry(e.getKey(), primeiro)),
+                         RESERVAS_EM_PARALELO)
+                .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                .block(Duration.ofMillis(timeoutReservaMs));
+
+        Instant agora = Instant.now();
+        Map<String, List<ServerEvent>> numerados = new LinkedHashMap<>();
+        List<EventoUsuario> documentos = new ArrayList<>();
+
+        for (Map.Entry<String, List<ServerEvent.Builder>> entrada : porUsuario.entrySet()) {
+            long seq = primeiros.get(entrada.getKey());
+            List<ServerEvent> eventos = new ArrayList<>(entrada.getValue().size());
+
+            for (ServerEvent.Builder builder : entrada.getValue()) {
+                ServerEvent evento = builder.setEventId(Long.toString(seq)).build();
+                eventos.add(evento);
+                documentos.add(new EventoUsuario(entrada.getKey(), seq, agora, evento.toByteArray()));
+                seq++;
+            }
+            numerados.put(entrada.getKey(), eventos);
+        }
+
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, EventoUsuario.class)
+                    .insert(documentos)
+                    .execute();
+        } catch (Exception e) {
+            log.error("[EVENTOS] Falha ao guardar {} eventos para retomada: {}", documentos.size(), e.getMessage());
+        }
+        return numerados;
+    }
+
+    /**
+     * Registra a assinatura no hub retomando depois de "ultimoSeq" (o
+     * last_event_id do cliente): primeiro os eventos perdidos, depois os ao
+     * vivo. Se não der para retomar, o stream termina com OUT_OF_RANGE e o
+     * cliente deve ressincronizar (GetConversations/GetMessages) e assinar sem
+     * last_event_id.
+     *
+     * Os perdidos só são lidos depois que o binding do usuário existe neste nó
+     * (RoteadorEventos.ligado): um evento gravado entre a leitura e o binding
+     * não estaria em nenhum dos dois.
+     */
+    public void retomar(Assinatura assinatura, long ultimoSeq) {
+        String userId = assinatura.userId();
+
+        assinatura.iniciarRetomada(ultimoSeq);
+        // Com outro stream do usuário aberto aqui, a memória do nó recebeu tudo desde então
+        boolean memoriaCompleta = hubEventos.temAssinatura(userId);
+        hubEventos.registrar(assinatura);
+
+        Mono.fromFuture(roteadorEventos.ligado(userId))
+            .timeout(Duration.ofMillis(timeoutBindingMs))
+            .then(Mono.defer(() -> perdidos(userId, ultimoSeq, hubEventos.capacidadeFila(), memoriaCompleta)))
+            .subscribe(
+                resultado -> {
+                    if (resultado.isPresent()) {
+                        assinatura.concluirRetomada(resultado.get());
+                    } else {
+                        assinatura.falharRetomada(Status.OUT_OF_RANGE
+                                .withDescription("eventos desde " + ultimoSeq + " nao estao mais disponiveis; ressincronize"));
+                    }
+                },
+                erro -> {
+                    log.error("[EVENTOS] Falha ao buscar eventos perdidos do usuario {}: {}", userId, erro.getMessage());
+                    assinatura.falharRetomada(Status.UNAVAILABLE.withDescription("falha ao retomar eventos; tente novamente"));
+                });
+    }
+
+    /**
+     * Eventos do usuário depois de "ultimoSeq", em ordem. Vêm da memória deste
+     * nó se ela estiver completa ("memoriaCompleta": o usuário não ficou sem
+     * stream aqui desde então); senão, do MongoDB. Devolve vazio (Optional)
+     * quando não é possível retomar: eventos já expiraram ou passam de "limite".
+     */
+    Mono<Optional<List<ServerEvent>>> perdidos(String userId, long ultimoSeq, int limite, boolean memoriaCompleta) {
+
+        if (memoriaCompleta) {
+            Optional<List<ServerEvent>> daMemoria = eventosRecentes.desde(userId, ultimoSeq);
+            if (daMemoria.isPresent() && daMemoria.get().size() <= limite) {
+                return Mono.just(daMemoria);
+            }
+        }
+
+        Query query = Query.query(Criteria.where("user_id").is(userId).and("seq").gt(ultimoSeq))
+                .with(Sort.by(Sort.Direction.ASC, "seq"))
+                .limit(limite + 1);
+
+        return reactiveMongoTemplate.find(query, EventoUsuario.class)
+                .collectList()
+                .map(documentos -> {
+                    if (documentos.size() > limite) {
+                        return Optional.<List<ServerEvent>>empty();
+                    }
+                    // Sem buracos: um seq que falta expirou ou nunca foi gravado
+                    List<ServerEvent> eventos = new ArrayList<>(documentos.size());
+                    long esperado = ultimoSeq + 1;
+                    for (EventoUsuario documento : documentos) {
+                        if (documento.getSeq() != esperado++) {
+                            return Optional.<List<ServerEvent>>empty();
+                        }
+                        eventos.add(decodificar(documento));
+                    }
+                    return Optional.of(eventos);
+                });
+    }
+
+    private Mono<Long> reservar(String userId, int quantidade) {
+        return reactiveMongoTemplate.findAndModify(
+                Query.query(Criteria.where("_id").is(userId)),
+                new Update().inc("last_seq", (long) quantidade),
+                FindAndModifyOptions.options().upsert(true).returnNew(true),
+                Document.class,
+                COLECAO_SEQUENCIAS)
+            .map(contador -> ((Number) contador.get("last_seq")).longValue() - quantidade + 1);
+    }
+
+    static ServerEvent decodificar(EventoUsuario documento) {
+        try {
+            return ServerEvent.parseFrom(documento.getPayload());
+        } catch (InvalidProtocolBufferException e) {
+            throw new IllegalStateException("evento guardado invalido: " + documento.getId(), e);
+        }
+    }
+}
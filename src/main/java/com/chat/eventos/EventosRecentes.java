@@ -0,0 +1,115 @@
+package com.chat.eventos;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import br.com.meuprojeto.chat.v1.ServerEvent;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Os últimos eventos entregues a cada usuário neste nó (um anel por usuário),
+ * para uma reconexão rápida não precisar ir ao MongoDB (user_events).
+ *
+ * O anel só recebe eventos enquanto o usuário tem stream aberto aqui (é quando
+ * a fila do nó está ligada a ele), por isso só é completo se o usuário não
+ * chegou a ficar sem nenhum stream no nó. Quem decide isso é quem consulta.
+ * Os eventos chegam em ordem (OrdenadorEventos), mas um buraco dado como
+ * perdido também fica no anel: a consulta confere a sequência inteira.
+ */
+@Component
+public class EventosRecentes {
+
+    @Value("${chat.eventos.recentes.por-usuario:256}")
+    private int eventosPorUsuario;
+
+    @Value("${chat.eventos.recentes.max-usuarios:200000}")
+    private long maximoUsuarios;
+
+    @Value("${chat.eventos.recentes.ttl-s:600}")
+    private long ttlSegundos;
+
+    private Cache<String, Anel> aneis;
+
+
+    @PostConstruct
+    void inicializar() {
+        aneis = Caffeine.newBuilder()
+                .maximumSize(maximoUsuarios)
+                .expireAfterAccess(Duration.ofSeconds(ttlSegundos))
+                .build();
+    }
+
+    public void adicionar(String userId, ServerEvent evento) {
+        long seq = DiarioEventos.seqDe(evento);
+        if (seq > 0) {
+            aneis.get(userId, u -> new Anel(eventosPorUsuario)).adicionar(seq, evento);
+        }
+    }
+
+    /**
+     * Eventos com seq maior que "ultimoSeq", em ordem, se o anel ainda tem
+     * todos eles (ultimoSeq + 1, + 2, ... sem faltar nenhum).
+     */
+    public Optional<List<ServerEvent>> desde(String userId, long ultimoSeq) {
+        Anel anel = aneis.getIfPresent(userId);
+        return anel == null ? Optional.empty() : anel.desde(ultimoSeq);
+    }
+
+
+    private static final class Anel {
+
+        private final int capacidade;
+        private final ArrayDeque<ServerEvent> eventos;
+        private final ArrayDeque<Long> seqs;
+
+        Anel(int capacidade) {
+            this.capacidade = capacidade;
+            this.eventos = new ArrayDeque<>(capacidade);
+            this.seqs = new ArrayDeque<>(capacidade);
+        }
+
+        synchronized void adicionar(long seq, ServerEvent evento) {
+            if (eventos.size() == capacidade) {
+                eventos.pollFirst();
+                seqs.pollFirst();
+            }
+            eventos.addLast(evento);
+            seqs.addLast(seq);
+        }
+
+        synchronized Optional<List<ServerEvent>> desde(long ultimoSeq) {
+            // O mais antigo do anel precisa ser no máximo o próximo que o cliente espera
+            if (seqs.isEmpty() || seqs.stream().mapToLong(Long::longValue).min().getAsLong() > ultimoSeq + 1) {
+                return Optional.empty();
+            }
+
+            List<ServerEvent> perdidos = new ArrayList<>();
+            Iterator<Long> itSeq = seqs.iterator();
+            for (ServerEvent evento : eventos) {
+                if (itSeq.next() > ultimoSeq) {
+                    perdidos.add(evento);
+                }
+            }
+            perdidos.sort((a, b) -> Long.compare(DiarioEventos.seqDe(a), DiarioEventos.seqDe(b)));
+
+            // Um buraco no meio (evento perdido ou atrasado) não pode ser entregue como retomada
+            long esperado = ultimoSeq + 1;
+            for (ServerEvent evento : perdidos) {
+                if (DiarioEventos.seqDe(evento) != esperado++) {
+                    return Optional.empty();
+                }
+            }
+            return Optional.of(perdidos);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.chat.eventos;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import br.com.meuprojeto.chat.v1.Message;
+import br.com.meuprojeto.chat.v1.ServerEvent;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Registro dos streams do SubscribeToEvents abertos neste nó, por usuário, e
+ * entrega (fanout) dos eventos para eles.
+ *
+ * Cada usuário aponta para um array imutável com suas assinaturas (um por
+ * dispositivo). Registrar/remover troca o array inteiro (copy-on-write, raro e
+ * pequeno); o fanout só faz um get no ConcurrentHashMap e percorre o array,
+ * sem lock nenhum. O custo por stream aberto é uma Assinatura e uma posição
+ * no array, o que permite centenas de milhares de streams por nó.
+ *
+ * Métricas de backlog: com tantos streams, um gauge por stream explodiria a
+ * cardinalidade. Em vez disso, a ocupação da fila de cada stream é amostrada a
+ * cada evento enfileirado (distribuição com percentis), há um gauge do backlog
+ * somado de todos os streams e um contador de descartes por política.
+ *
+ * As descargas de lotes incompletos (ServerEvent.batch) são agendadas num
+ * executor próprio ("chat.eventos.lote.threads"), e não no agendador
+ * compartilhado do Spring, onde tarefas que esperam o MongoDB atrasariam os
+ * lotes de todos os streams.
+ */
+@Component
+public class HubEventos {
+
+    public static final String METRICA_ASSINATURAS = "chat.eventos.assinaturas";
+    public static final String METRICA_EVENTOS_ENTREGUES = "chat.eventos.entregues";
+    public static final String METRICA_OCUPACAO_FILA = "chat.eventos.fila.ocupacao";
+    public static final String METRICA_BACKLOG_TOTAL = "chat.eventos.fila.backlog";
+    public static final String METRICA_DESCARTES = "chat.eventos.fila.excesso";
+
+    private static final Assinatura[] NENHUMA = new Assinatura[0];
+
+
+    // Eventos que cada stream pode acumular esperando o cliente
+    @Value("${chat.eventos.fila.capacidade:1000}")
+    private int capacidadeFila;
+
+    @Value("${chat.eventos.fila.politicas:DESCARTAR_PRESENCA_ANTIGA,AGRUPAR_STATUS}")
+    private List<PoliticaExcesso> politicasConfiguradas;
+
+    // Limites para o lote pedido pelo cliente (SubscribeToEventsRequest.max_batch_*)
+    @Value("${chat.eventos.lote.max-eventos:100}")
+    private int maxEventosLote;
+
+    @Value("${chat.eventos.lote.max-espera-ms:200}")
+    private long maxEsperaLoteMs;
+
+    @Value("${chat.eventos.lote.threads:2}")
+    private int threadsLote;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ScheduledThreadPoolExecutor agendadorLotes;
+
+    private final Map<String, Assinatura[]> assinaturasPorUsuario = new ConcurrentHashMap<>();
+    private final LongAdder totalAssinaturas = new LongAdder();
+    private final LongAdder backlogTotal = new LongAdder();
+
+    private final List<OuvinteUsuarios> ouvintes = new CopyOnWriteArrayList<>();
+    private volatile OuvinteEntregas ouvinteEntregas;
+    private EnumSet<PoliticaExcesso> politicas;
+    private Counter eventosEntregues;
+    private DistributionSummary ocupacaoFila;
+    private final Map<PoliticaExcesso, Counter> descartes = new EnumMap<>(PoliticaExcesso.class);
+
+
+    @PostConstruct
+    void inicializar() {
+        AtomicInteger contador = new AtomicInteger();
+        agendadorLotes = new ScheduledThreadPoolExecutor(threadsLote, r -> new Thread(r, "lotes-eventos-" + contador.incrementAndGet()));
+        // Stream encerrado não deixa tarefa cancelada ocupando a fila do executor
+        agendadorLotes.setRemoveOnCancelPolicy(true);
+
+        politicas = politicasConfiguradas.isEmpty() ? EnumSet.noneOf(PoliticaExcesso.class) : EnumSet.copyOf(politicasConfiguradas);
+
+        eventosEntregues = meterRegistry.counter(METRICA_EVENTOS_ENTREGUES);
+        Gauge.builder(METRICA_ASSINATURAS, totalAssinaturas, LongAdder::sum).register(meterRegistry);
+        Gauge.builder(METRICA_BACKLOG_TOTAL, backlogTotal, LongAdder::sum).register(meterRegistry);
+        ocupacaoFila = DistributionSummary.builder(METRICA_OCUPACAO_FILA)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        for (PoliticaExcesso politica : PoliticaExcesso.values()) {
+            descartes.put(politica, meterRegistry.counter(METRICA_DESCARTES, "politica", politica.name().toLowerCase()));
+        }
+    }
+
+    @PreDestroy
+    void encerrar() {
+        agendadorLotes.shutdownNow();
+    }
+
+    /**
+     * Cria a assinatura de um stream do SubscribeToEvents. Ela só recebe eventos
+     * depois de registrar(), que deve vir depois de configurar os handlers do stream.
+     */
+    public Assinatura criarAssinatura(String userId, ServerCallStreamObserver<ServerEvent> responseObserver) {
+        return new Assinatura(userId, responseObserver, this, 1, 0);
+    }
+
+    /**
+     * Idem, com eventos agrupados em ServerEvent.batch. O que o cliente pediu é
+     * limitado por "chat.eventos.lote.max-eventos" e "chat.eventos.lote.max-espera-ms".
+     */
+    public Assinatura criarAssinatura(String userId, ServerCallStreamObserver<ServerEvent> responseObserver,
+                                      int maxLotePedido, int esperaLotePedidaMs) {
+        int maxLote = Math.min(Math.max(maxLotePedido, 1), maxEventosLote);
+        long esperaMs = Math.min(Math.max(esperaLotePedidaMs, 0), maxEsperaLoteMs);
+        return new Assinatura(userId, responseObserver, this, maxLote, maxLote > 1 ? esperaMs : 0);
+    }
+
+    /**
+     * Avisado quando um usuário passa a ter (ou deixa de ter) streams neste nó.
+     */
+    public interface OuvinteUsuarios {
+        void usuarioAlterado(String userId);
+    }
+
+    public void observarUsuarios(OuvinteUsuarios ouvinte) {
+        ouvintes.add(ouvinte);
+    }
+
+    /**
+     * Avisado quando uma new_message é enviada ao dispositivo do destinatário.
+     * Chamado pela thread que esvazia o stream: deve ser rápido e não bloquear.
+     */
+    public interface OuvinteEntregas {
+        void mensagemEntregue(String userId, Message mensagem);
+    }
+
+    public void observarEntregas(OuvinteEntregas ouvinteEntregas) {
+        this.ouvinteEntregas = ouvinteEntregas;
+    }
+
+    public void registrar(Assinatura assinatura) {
+        boolean[] primeira = new boolean[1];
+        assinaturasPorUsuario.compute(assinatura.userId(), (usuario, atuais) -> {
+            primeira[0] = atuais == null;
+            Assinatura[] base = atuais == null ? NENHUMA : atuais;
+            Assinatura[] novas = Arrays.copyOf(base, base.length + 1);
+            novas[base.length] = assinatura;
+            return novas;
+        });
+        totalAssinaturas.increment();
+
+        if (primeira[0]) {
+            avisar(assinatura.userId());
+        }
+    }
+
+    public void remover(Assinatura assinatura) {
+        assinatura.encerrar();
+
+        boolean[] ultima = new boolean[1];
+        assinaturasPorUsuario.computeIfPresent(assinatura.userId(), (usuario, atuais) -> {
+            Assinatura[] restantes = Arrays.stream(atuais).filter(a -> a != assinatura).toArray(Assinatura[]::new);
+            if (restantes.length < atuais.length) {
+                totalAssinaturas.decrement();
+            }
+            // Sem assinaturas, a entrada do usuário sai do mapa
+            ultima[0] = restantes.length == 0;
+            return ultima[0] ? null : restantes;
+        });
+
+        if (ultima[0]) {
+            avisar(assinatura.userId());
+        }
+    }
+
+    private void avisar(String userId) {
+        for (OuvinteUsuarios ouvinte : ouvintes) {
+            ouvinte.usuarioAlterado(userId);
+        }
+    }
+
+    /**
+     * Usuários com pelo menos um stream aberto neste nó.
+     */
+    public Set<String> usuarios() {
+        return Set.copyOf(assinaturasPorUsuario.keySet());
+    }
+
+    /**
+     * Entrega o evento a todos os streams abertos do usuário neste nó.
+     */
+    public void publicar(String userId, ServerEvent evento) {
+        Assinatura[] assinaturas = assinaturasPorUsuario.get(userId);
+        if (assinaturas == null) {
+            return;
+        }
+        for (Assinatura assinatura : assinaturas) {
+            assinatura.enviar(evento);
+        }
+        eventosEntregues.increment(assinaturas.length);
+    }
+
+    /**
+     * Entrega o mesmo evento a vários usuários (ex: membros de uma conversa).
+     */
+    public void publicar(Collection<String> userIds, ServerEvent evento) {
+        for (String userId : userIds) {
+            publicar(userId, evento);
+        }
+    }
+
+    public boolean temAssinatura(String userId) {
+        return assinaturasPorUsuario.containsKey(userId);
+    }
+
+
+    void confirmarEntrega(String userId, Message mensagem) {
+        OuvinteEntregas atual = ouvinteEntregas;
+        if (atual != null) {
+            atual.mensagemEntregue(userId, mensagem);
+        }
+    }
+
+    void agendar(Runnable tarefa, long atrasoNanos) {
+        agendadorLotes.schedule(tarefa, atrasoNanos, TimeUnit.NANOSECONDS);
+    }
+
+    int capacidadeFila() {
+        return capacidadeFila;
+    }
+
+    boolean aplica(PoliticaExcesso politica) {
+        return politicas.contains(politica);
+    }
+
+    LongAdder backlogTotal() {
+        return backlogTotal;
+    }
+
+    void registrarOcupacao(int ocupacao) {
+        ocupacaoFila.record(ocupacao);
+    }
+
+    void registrarDescarte(PoliticaExcesso politica) {
+        descartes.get(politica).increment();
+    }
+}
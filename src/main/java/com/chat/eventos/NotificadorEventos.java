@@ -0,0 +1,83 @@
+package com.chat.eventos;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.chat.conversa.DiretorioConversas;
+import com.chat.model.Conversa;
+
+import br.com.meuprojeto.chat.v1.Message;
+import br.com.meuprojeto.chat.v1.ServerEvent;
+
+/**
+ * Transforma o que o Worker gravou em eventos do SubscribeToEvents e os
+ * entrega a cada participante da conversa, no nó onde ele estiver conectado
+ * (ver RoteadorEventos). Os eventos são numerados e guardados antes pelo
+ * DiarioEventos, para o cliente poder retomar o stream com last_event_id.
+ */
+@Component
+public class NotificadorEventos {
+
+    private static final Logger log = LoggerFactory.getLogger(NotificadorEventos.class);
+
+    @Autowired
+    private RoteadorEventos roteadorEventos;
+
+    @Autowired
+    private DiretorioConversas diretorioConversas;
+
+    @Autowired
+    private DiarioEventos diarioEventos;
+
+
+    /**
+     * Publica um new_message para cada participante (inclusive o remetente, para
+     * os outros dispositivos dele). Falhas aqui não afetam o Worker: as
+     * mensagens já estão gravadas e o cliente as recebe no próximo GetMessages.
+     */
+    public void novasMensagens(List<Message> novas) {
+        try {
+            Map<String, Conversa> conversas = diretorioConversas.buscar(
+                novas.stream().map(Message::getConversationId).collect(Collectors.toSet()));
+
+            // Um evento por (participante, mensagem), na ordem em que as mensagens foram gravadas
+            Map<String, List<ServerEvent.Builder>> porUsuario = new LinkedHashMap<>();
+            for (Message mensagem : novas) {
+                for (String userId : DiretorioConversas.participantes(conversas.get(mensagem.getConversationId()), List.of(mensagem.getSenderId()))) {
+                    porUsuario.computeIfAbsent(userId, u -> new ArrayList<>())
+                            .add(ServerEvent.newBuilder()
+                                    .setEventTime(mensagem.getSentAt())
+                                    .setNewMessage(mensagem));
+                }
+            }
+
+            Map<String, List<ServerEvent>> eventos;
+            try {
+                eventos = diarioEventos.registrar(porUsuario);
+            } catch (Exception e) {
+                // Sem numeração o evento ainda vale ao vivo; só não pode ser retomado
+                log.warn("[EVENTOS] Falha ao numerar eventos de {} usuarios; entregando sem event_id: {}", porUsuario.size(), e.getMessage());
+                eventos = new LinkedHashMap<>();
+                for (Map.Entry<String, List<ServerEvent.Builder>> entrada : porUsuario.entrySet()) {
+                    eventos.put(entrada.getKey(), entrada.getValue().stream().map(ServerEvent.Builder::build).toList());
+                }
+            }
+
+            for (Map.Entry<String, List<ServerEvent>> entrada : eventos.entrySet()) {
+                for (ServerEvent evento : entrada.getValue()) {
+                    roteadorEventos.publicar(entrada.getKey(), evento);
+                }
+            }
+        } catch (Exception e) {
+            log.error("[EVENTOS] Falha ao notificar participantes de {} mensagens: {}", novas.size(), e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.chat.eventos;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.protobuf.Timestamp;
+
+import br.com.meuprojeto.chat.v1.PresenceUpdate;
+import br.com.meuprojeto.chat.v1.ServerEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Publica os PresenceUpdate para quem observa o usuário (WatchPresence): uma
+ * única publicação por mudança, que o RoteadorEventos leva só aos nós com
+ * observadores (ver InteressesPresenca).
+ *
+ * Cada usuário publica no máximo uma mudança a cada
+ * "chat.presenca.intervalo-min-ms". Mudanças dentro do intervalo ficam
+ * pendentes e só a última sai no fim dele, então um usuário conectando e
+ * desconectando sem parar (rede ruim, horário de pico) não inunda os streams
+ * de quem o observa.
+ *
+ * Presença é efêmera: o evento não é numerado nem guardado (não volta numa
+ * retomada).
+ */
+@Component
+public class NotificadorPresenca {
+
+    private static final Logger log = LoggerFactory.getLogger(NotificadorPresenca.class);
+
+    public static final String METRICA_AGRUPADAS = "chat.presenca.agrupadas";
+
+
+    @Autowired
+    private RoteadorEventos roteadorEventos;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.presenca.intervalo-min-ms:2000}")
+    private long intervaloMinimoMs;
+
+    private final Map<String, Janela> janelas = new ConcurrentHashMap<>();
+
+    private Counter agrupadas;
+
+
+    @PostConstruct
+    void registrarMetricas() {
+        agrupadas = meterRegistry.counter(METRICA_AGRUPADAS);
+    }
+
+    public void publicar(String userId, boolean online, Instant ultimaVez) {
+        ServerEvent evento = evento(userId, online, ultimaVez);
+        long agora = System.currentTimeMillis();
+
+        while (true) {
+            Janela janela = janelas.computeIfAbsent(userId, u -> new Janela());
+            synchronized (janela) {
+                if (janela.removida) {
+                    // A limpeza tirou esta janela do mapa: tenta de novo numa nova
+                    continue;
+                }
+                if (agora - janela.ultimoEnvio < intervaloMinimoMs) {
+                    if (janela.pendente != null) {
+                        agrupadas.increment();
+                    }
+                    janela.pendente = evento;
+                    return;
+                }
+                janela.ultimoEnvio = agora;
+            }
+            enviar(userId, evento);
+            return;
+        }
+    }
+
+    /**
+     * Envia as pendentes cujo intervalo já passou e limpa as janelas paradas.
+     */
+    @Scheduled(fixedDelayString = "${chat.presenca.intervalo-min-ms:2000}")
+    public void descarregar() {
+        long agora = System.currentTimeMillis();
+
+        for (Map.Entry<String, Janela> entrada : janelas.entrySet()) {
+            Janela janela = entrada.getValue();
+            ServerEvent evento = null;
+
+            synchronized (janela) {
+                if (agora - janela.ultimoEnvio < intervaloMinimoMs) {
+                    continue;
+                }
+                if (janela.pendente != null) {
+                    evento = janela.pendente;
+                    janela.pendente = null;
+                    janela.ultimoEnvio = agora;
+                } else {
+                    janela.removida = true;
+                    janelas.remove(entrada.getKey(), janela);
+                }
+            }
+
+            if (evento != null) {
+                enviar(entrada.getKey(), evento);
+            }
+        }
+    }
+
+    private void enviar(String userId, ServerEvent evento) {
+        try {
+            roteadorEventos.publicarPresenca(userId, evento);
+        } catch (Exception e) {
+            log.warn("[PRESENCA] Falha ao publicar presenca do usuario {}: {}", userId, e.getMessage());
+        }
+    }
+
+    public static ServerEvent evento(String userId, boolean online, Instant ultimaVez) {
+        return ServerEvent.newBuilder()
+                .setEventTime(paraTimestamp(ultimaVez))
+                .setPresenceUpdate(atualizacao(userId, online, ultimaVez))
+                .build();
+    }
+
+    public static PresenceUpdate atualizacao(String userId, boolean online, Instant ultimaVez) {
+        return PresenceUpdate.newBuilder()
+                .setUserId(userId)
+                .setIsOnline(online)
+                .setLastSeenAt(paraTimestamp(ultimaVez))
+                .build();
+    }
+
+    private static Timestamp paraTimestamp(Instant instante) {
+        return Timestamp.newBuilder()
+                .setSeconds(instante.getEpochSecond())
+                .setNanos(instante.getNano())
+                .build();
+    }
+
+
+    private static final class Janela {
+        long ultimoEnvio;
+        ServerEvent pendente;
+        boolean removida;
+    }
+}
@@ -0,0 +1,217 @@
+package com.chat.eventos;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.chat.model.EventoUsuario;
+
+import br.com.meuprojeto.chat.v1.ServerEvent;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Entrega os eventos numerados de cada usuário conectado neste nó em ordem de
+ * seq, sem buracos.
+ *
+ * Os eventos de um usuário são gerados por vários Workers (e nós) ao mesmo
+ * tempo, então o 12 pode chegar antes do 11. Se o 12 fosse entregue primeiro
+ * e o stream caísse antes do 11, o cliente retomaria do 12 e o 11 se perderia.
+ * Por isso um evento adiantado espera aqui pelos anteriores. Se o buraco não
+ * fechar em "chat.eventos.ordem.espera-ms", os que faltam são buscados em
+ * "user_events" (o DiarioEventos grava antes de publicar); os que nem lá
+ * estão (gravação falhou) são dados como perdidos, e uma retomada que precise
+ * deles vira ressincronização.
+ *
+ * A ordem só é conhecida a partir do primeiro evento recebido depois que o
+ * usuário conectou aqui; um atrasado anterior a ele é entregue assim que
+ * chega (no pior caso o cliente recebe algum evento repetido ao retomar).
+ */
+@Component
+public class OrdenadorEventos implements HubEventos.OuvinteUsuarios {
+
+    private static final Logger log = LoggerFactory.getLogger(OrdenadorEventos.class);
+
+    public static final String METRICA_RECUPERADOS = "chat.eventos.ordem.recuperados";
+    public static final String METRICA_PERDIDOS = "chat.eventos.ordem.perdidos";
+
+
+    @Autowired
+    private HubEventos hubEventos;
+
+    @Autowired
+    private EventosRecentes eventosRecentes;
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.eventos.ordem.espera-ms:500}")
+    private long esperaMs;
+
+    private final Map<String, Sequencia> porUsuario = new ConcurrentHashMap<>();
+
+    private Counter recuperados;
+    private Counter perdidos;
+
+
+    @PostConstruct
+    void inicializar() {
+        recuperados = meterRegistry.counter(METRICA_RECUPERADOS);
+        perdidos = meterRegistry.counter(METRICA_PERDIDOS);
+        hubEventos.observarUsuarios(this);
+    }
+
+    /**
+     * Evento recebido da fila do nó para o usuário. Sem seq (efêmero), sai direto.
+     */
+    public void receber(String userId, ServerEvent evento) {
+        long seq = DiarioEventos.seqDe(evento);
+        if (seq == 0) {
+            hubEventos.publicar(userId, evento);
+            return;
+        }
+        if (!hubEventos.temAssinatura(userId)) {
+            // Binding ainda não foi removido; ninguém para receber
+            return;
+        }
+
+        Sequencia sequencia = porUsuario.computeIfAbsent(userId, u -> new Sequencia());
+        synchronized (sequencia) {
+            if (sequencia.proximo == 0) {
+                sequencia.inicio = seq;
+                sequencia.proximo = seq;
+            }
+            if (seq < sequencia.proximo) {
+                if (seq < sequencia.inicio) {
+                    entregar(userId, evento);
+                }
+                // Senão é repetido ou já foi dado como perdido
+                return;
+            }
+            sequencia.pendentes.put(seq, evento);
+            drenar(userId, sequencia);
+        }
+    }
+
+    /**
+     * Usuário sem streams neste nó: a ordem dele recomeça na próxima conexão.
+     */
+    @Override
+    public void usuarioAlterado(String userId) {
+        if (!hubEventos.temAssinatura(userId)) {
+            porUsuario.remove(userId);
+        }
+    }
+
+    /**
+     * Busca no MongoDB o que falta nos buracos que passaram do tempo de espera.
+     * A consulta é reativa: esta tarefa só percorre os usuários.
+     */
+    @Scheduled(fixedDelayString = "${chat.eventos.ordem.espera-ms:500}")
+    public void verificar() {
+        long agora = System.currentTimeMillis();
+
+        for (Map.Entry<String, Sequencia> entrada : porUsuario.entrySet()) {
+            Sequencia sequencia = entrada.getValue();
+            long de;
+            long ate;
+            synchronized (sequencia) {
+                if (sequencia.buscando || sequencia.pendentes.isEmpty() || agora - sequencia.esperandoDesde < esperaMs) {
+                    continue;
+                }
+                sequencia.buscando = true;
+                de = sequencia.proximo;
+                ate = sequencia.pendentes.firstKey() - 1;
+            }
+            buscar(entrada.getKey(), sequencia, de, ate);
+        }
+    }
+
+    private void buscar(String userId, Sequencia sequencia, long de, long ate) {
+        Query query = Query.query(Criteria.where("user_id").is(userId).and("seq").gte(de).lte(ate))
+                .with(Sort.by(Sort.Direction.ASC, "seq"));
+
+        reactiveMongoTemplate.find(query, EventoUsuario.class)
+                .collectList()
+                .subscribe(
+                    documentos -> {
+                        synchronized (sequencia) {
+                            for (EventoUsuario documento : documentos) {
+                                if (documento.getSeq() >= sequencia.proximo) {
+                                    sequencia.pendentes.put(documento.getSeq(), DiarioEventos.decodificar(documento));
+                                    recuperados.increment();
+                                }
+                            }
+                            pularBuraco(userId, sequencia);
+                        }
+                    },
+                    erro -> {
+                        log.warn("[EVENTOS] Falha ao buscar eventos {}..{} do usuario {}: {}", de, ate, userId, erro.getMessage());
+                        synchronized (sequencia) {
+                            pularBuraco(userId, sequencia);
+                        }
+                    });
+    }
+
+    // Com a trava de "sequencia"
+    private void pularBuraco(String userId, Sequencia sequencia) {
+        sequencia.buscando = false;
+        drenar(userId, sequencia);
+        if (!sequencia.pendentes.isEmpty()) {
+            long faltando = sequencia.pendentes.firstKey() - sequencia.proximo;
+            perdidos.increment(faltando);
+            log.warn("[EVENTOS] {} eventos do usuario {} nao chegaram; seguindo a partir do {}",
+                    faltando, userId, sequencia.pendentes.firstKey());
+            sequencia.proximo = sequencia.pendentes.firstKey();
+            drenar(userId, sequencia);
+        }
+    }
+
+    // Com a trava de "sequencia"
+    private void drenar(String userId, Sequencia sequencia) {
+        boolean avancou = false;
+        while (!sequencia.pendentes.isEmpty() && sequencia.pendentes.firstKey() == sequencia.proximo) {
+            entregar(userId, sequencia.pendentes.pollFirstEntry().getValue());
+            sequencia.proximo++;
+            avancou = true;
+        }
+        // O tempo de espera conta a partir de quando o buraco atual apareceu
+        if (sequencia.pendentes.isEmpty()) {
+            sequencia.esperandoDesde = 0;
+        } else if (avancou || sequencia.esperandoDesde == 0) {
+            sequencia.esperandoDesde = System.currentTimeMillis();
+        }
+    }
+
+    private void entregar(String userId, ServerEvent evento) {
+        eventosRecentes.adicionar(userId, evento);
+        hubEventos.publicar(userId, evento);
+    }
+
+
+    private static final class Sequencia {
+        // Primeiro seq recebido desde que o usuário conectou neste nó
+        long inicio;
+        // Próximo seq a entregar (0 = nenhum recebido ainda)
+        long proximo;
+        // Adiantados, esperando os anteriores
+        final TreeMap<Long, ServerEvent> pendentes = new TreeMap<>();
+        long esperandoDesde;
+        boolean buscando;
+    }
+}
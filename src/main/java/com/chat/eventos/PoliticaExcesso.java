@@ -0,0 +1,22 @@
+package com.chat.eventos;
+
+/**
+ * O que fazer quando a fila de saída de uma Assinatura enche (cliente lento).
+ * Configuradas em "chat.eventos.fila.politicas"; DESCONECTAR é sempre o último
+ * recurso, quando as outras não liberam espaço, e DESCARTAR_EFEMERO vale
+ * sempre, independente da configuração.
+ */
+public enum PoliticaExcesso {
+
+    /** Descarta o evento de presença mais antigo da fila (presença velha não tem valor). */
+    DESCARTAR_PRESENCA_ANTIGA,
+
+    /** Mantém só o último status de cada (mensagem, usuário) ainda não enviado. */
+    AGRUPAR_STATUS,
+
+    /** Descarta o sinal efêmero (ex: "digitando...") que chega com o stream atrasado. */
+    DESCARTAR_EFEMERO,
+
+    /** Encerra o stream com o id do último evento entregue, para o cliente retomar. */
+    DESCONECTAR
+}
@@ -0,0 +1,356 @@
+package com.chat.eventos;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.AnonymousQueue;
+import org.springframework.amqp.core.Binding;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.rabbit.connection.Connection;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionListener;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+
+import com.chat.config.RabbitMQConfig;
+import com.chat.presenca.InteressesPresenca;
+import com.google.protobuf.InvalidProtocolBufferException;
+
+import br.com.meuprojeto.chat.v1.ServerEvent;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Leva os eventos do SubscribeToEvents até o nó onde o usuário está conectado.
+ *
+ * Quem gera o evento (o Worker, em qualquer nó) publica uma cópia por
+ * destinatário na EXCHANGE_EVENTOS, com o id do usuário como routing key. Cada
+ * nó tem uma fila própria e só liga nela (binding) os usuários que têm stream
+ * aberto nele, então cada evento chega a um único nó (ou nenhum, se o usuário
+ * está offline e o Broker o descarta), independente de quantos nós existem.
+ *
+ * Os bindings acompanham o HubEventos: são criados quando o usuário abre o
+ * primeiro stream no nó e removidos quando fecha o último. Como abrir/fechar
+ * streams é frequente, as mudanças são agrupadas e aplicadas por uma única
+ * thread, que compara o estado desejado (HubEventos) com o que já está ligado.
+ * Se a conexão com o Broker cair, a fila (exclusiva) some; ao reconectar ela é
+ * declarada de novo com todos os bindings.
+ *
+ * Presença usa o mesmo mecanismo, com routing key "presenca:<user_id>": o nó
+ * liga os usuários que alguém observa a partir dele (InteressesPresenca), e
+ * cada mudança de presença é publicada uma única vez, chegando só aos nós
+ * onde há interesse, em vez de uma cópia para cada contato.
+ */
+@Component
+public class RoteadorEventos implements HubEventos.OuvinteUsuarios, ConnectionListener {
+
+    private static final Logger log = LoggerFactory.getLogger(RoteadorEventos.class);
+
+    private static final Duration ESPERA_NOVA_TENTATIVA = Duration.ofSeconds(1);
+
+
+    @Autowired
+    private HubEventos hubEventos;
+
+    @Autowired
+    private OrdenadorEventos ordenadorEventos;
+
+    @Autowired
+    private InteressesPresenca interessesPresenca;
+
+    @Autowired
+    private AmqpAdmin amqpAdmin;
+
+    @Autowired
+    private AnonymousQueue filaEventosNo;
+
+    @Autowired
+    private AnonymousQueue filaEfemerosNo;
+
+    @Autowired
+    private ConnectionFactory connectionFactory;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    // Sem "mandatory": evento para usuário offline é descartado pelo Broker, sem retorno
+    private RabbitTemplate rabbitTemplate;
+
+    // Routing keys (usuário ou "presenca:<usuário>") cujo binding pode estar desatualizado
+    private final Set<String> alterados = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean sincronizacaoAgendada = new AtomicBoolean();
+
+    // Routing keys ligadas na fila deste nó. Só acessado pela thread do executor.
+    private final Set<String> ligados = new HashSet<>();
+
+    // Quem espera o binding de um usuário (ver ligado). Só acessado pela thread do executor.
+    private final Map<String, List<CompletableFuture<Void>>> aguardandoBinding = new HashMap<>();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "roteador-eventos"));
+
+
+    @PostConstruct
+    void inicializar() {
+        rabbitTemplate = new RabbitTemplate(connectionFactory);
+        rabbitTemplate.setMandatory(false);
+
+        hubEventos.observarUsuarios(this);
+        interessesPresenca.observarObservados(observado -> {
+            alterados.add(RabbitMQConfig.PREFIXO_ROTA_PRESENCA + observado);
+            agendarSincronizacao();
+        });
+        connectionFactory.addConnectionListener(this);
+    }
+
+    @PreDestroy
+    void encerrar() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Publica o evento para cada destinatário, onde quer que ele esteja conectado.
+     */
+    public void publicar(Collection<String> userIds, ServerEvent evento) {
+        byte[] corpo = evento.toByteArray();
+        for (String userId : userIds) {
+            enviar(userId, corpo);
+        }
+    }
+
+    /**
+     * Publica um evento já endereçado a um único usuário (ex: numerado pelo DiarioEventos).
+     */
+    public void publicar(String userId, ServerEvent evento) {
+        enviar(userId, evento.toByteArray());
+    }
+
+    /**
+     * Publica um sinal efêmero para cada destinatário. Não persistente e sem
+     * garantia: se o Broker ou o nó do destinatário estiver sobrecarregado, o
+     * sinal é descartado.
+     */
+    public void publicarEfemero(Collection<String> userIds, ServerEvent evento) {
+        byte[] corpo = evento.toByteArray();
+        for (String userId : userIds) {
+            rabbitTemplate.send(RabbitMQConfig.EXCHANGE_EFEMEROS, userId, mensagem(corpo));
+        }
+    }
+
+    /**
+     * Publica a presença do usuário para os nós onde alguém a observa.
+     */
+    public void publicarPresenca(String userId, ServerEvent evento) {
+        enviar(RabbitMQConfig.PREFIXO_ROTA_PRESENCA + userId, evento.toByteArray());
+    }
+
+    private void enviar(String chave, byte[] corpo) {
+        rabbitTemplate.send(RabbitMQConfig.EXCHANGE_EVENTOS, chave, mensagem(corpo));
+    }
+
+    private static Message mensagem(byte[] corpo) {
+        return MessageBuilder.withBody(corpo)
+                .setContentType(MessageProperties.CONTENT_TYPE_BYTES)
+                .setDeliveryMode(MessageDeliveryMode.NON_PERSISTENT)
+                .build();
+    }
+
+    /**
+     * Eventos dos usuários conectados neste nó.
+     */
+    @RabbitListener(queues = "#{filaEventosNo.name}")
+    public void receber(Message mensagem) {
+        ServerEvent evento;
+        try {
+            evento = ServerEvent.parseFrom(mensagem.getBody());
+        } catch (InvalidProtocolBufferException e) {
+            log.error("[EVENTOS] Evento invalido descartado: {}", e.getMessage());
+            return;
+        }
+        String chave = mensagem.getMessageProperties().getReceivedRoutingKey();
+        if (chave.startsWith(RabbitMQConfig.PREFIXO_ROTA_PRESENCA)) {
+            entregarPresenca(chave.substring(RabbitMQConfig.PREFIXO_ROTA_PRESENCA.length()), evento, mensagem.getBody());
+            return;
+        }
+        ordenadorEventos.receber(chave, evento);
+    }
+
+    /**
+     * Sinais efêmeros dos usuários conectados neste nó. Prefetch pequeno (ver
+     * RabbitMQConfig.EFEMEROS_CONTAINER_FACTORY) e sem passar pelo
+     * OrdenadorEventos nem pelos EventosRecentes.
+     */
+    @RabbitListener(queues = "#{filaEfemerosNo.name}", containerFactory = RabbitMQConfig.EFEMEROS_CONTAINER_FACTORY)
+    public void receberEfemero(Message mensagem) {
+        ServerEvent evento;
+        try {
+            evento = ServerEvent.parseFrom(mensagem.getBody());
+        } catch (InvalidProtocolBufferException e) {
+            log.error("[EVENTOS] Sinal efemero invalido descartado: {}", e.getMessage());
+            return;
+        }
+        hubEventos.publicar(mensagem.getMessageProperties().getReceivedRoutingKey(), evento);
+    }
+
+    /**
+     * Repassa a presença aos observadores registrados neste nó: direto, se o
+     * observador tem stream aqui; senão, pela exchange até o nó dele.
+     */
+    private void entregarPresenca(String observado, ServerEvent evento, byte[] corpo) {
+        for (String observador : interessesPresenca.observadores(observado)) {
+            if (hubEventos.temAssinatura(observador)) {
+                hubEventos.publicar(observador, evento);
+            } else {
+                enviar(observador, corpo);
+            }
+        }
+    }
+
+    /**
+     * Completa quando os eventos do usuário já estão chegando na fila deste nó
+     * (binding declarado no Broker). Um evento publicado antes disso não chega
+     * aqui, então a retomada só pode ler os perdidos depois.
+     *
+     * Roda na thread do executor depois da sincronização que o registro do
+     * usuário no HubEventos agendou; se o usuário sair antes do binding, o
+     * futuro falha.
+     */
+    public CompletableFuture<Void> ligado(String userId) {
+        CompletableFuture<Void> futuro = new CompletableFuture<>();
+        executor.execute(() -> {
+            if (ligados.contains(userId)) {
+                futuro.complete(null);
+            } else if (!hubEventos.temAssinatura(userId)) {
+                futuro.completeExceptionally(new IllegalStateException("usuario sem stream neste no"));
+            } else {
+                aguardandoBinding.computeIfAbsent(userId, u -> new ArrayList<>()).add(futuro);
+            }
+        });
+        return futuro;
+    }
+
+    @Override
+    public void usuarioAlterado(String userId) {
+        alterados.add(userId);
+        agendarSincronizacao();
+    }
+
+    /**
+     * Conexão (re)estabelecida: a fila exclusiva pode ter sido apagada junto com
+     * a conexão anterior, então declara de novo e religa todos os usuários.
+     */
+    @Override
+    public void onCreate(Connection connection) {
+        executor.execute(() -> {
+            try {
+                amqpAdmin.declareQueue(filaEventosNo);
+                amqpAdmin.declareQueue(filaEfemerosNo);
+                ligados.clear();
+                alterados.addAll(hubEventos.usuarios());
+                for (String observado : interessesPresenca.observados()) {
+                    alterados.add(RabbitMQConfig.PREFIXO_ROTA_PRESENCA + observado);
+                }
+            } catch (Exception e) {
+                log.error("[EVENTOS] Falha ao declarar a fila de eventos do no: {}", e.getMessage());
+            }
+            agendarSincronizacao();
+        });
+    }
+
+    private void agendarSincronizacao() {
+        if (sincronizacaoAgendada.compareAndSet(false, true)) {
+            executor.execute(this::sincronizar);
+        }
+    }
+
+    private void sincronizar() {
+        sincronizacaoAgendada.set(false);
+        boolean falhou = false;
+
+        for (Iterator<String> it = alterados.iterator(); it.hasNext(); ) {
+            String chave = it.next();
+            it.remove();
+
+            boolean desejado = desejado(chave);
+            try {
+                if (desejado && !ligados.contains(chave)) {
+                    for (Binding binding : bindings(chave)) {
+                        amqpAdmin.declareBinding(binding);
+                    }
+                    ligados.add(chave);
+                    avisarBinding(chave, null);
+                } else if (!desejado && ligados.contains(chave)) {
+                    for (Binding binding : bindings(chave)) {
+                        amqpAdmin.removeBinding(binding);
+                    }
+                    ligados.remove(chave);
+                }
+                if (!desejado) {
+                    avisarBinding(chave, new IllegalStateException("usuario saiu antes do binding"));
+                }
+            } catch (Exception e) {
+                log.warn("[EVENTOS] Falha ao atualizar binding {}: {}", chave, e.getMessage());
+                alterados.add(chave);
+                falhou = true;
+                break;
+            }
+        }
+
+        if (falhou) {
+            taskScheduler.schedule(this::agendarSincronizacao, Instant.now().plus(ESPERA_NOVA_TENTATIVA));
+        }
+    }
+
+    private void avisarBinding(String chave, Exception erro) {
+        List<CompletableFuture<Void>> aguardando = aguardandoBinding.remove(chave);
+        if (aguardando == null) {
+            return;
+        }
+        for (CompletableFuture<Void> futuro : aguardando) {
+            if (erro == null) {
+                futuro.complete(null);
+            } else {
+                futuro.completeExceptionally(erro);
+            }
+        }
+    }
+
+    // Usuário com stream aberto neste nó, ou observado por alguém a partir dele
+    private boolean desejado(String chave) {
+        if (chave.startsWith(RabbitMQConfig.PREFIXO_ROTA_PRESENCA)) {
+            return interessesPresenca.temObservadores(chave.substring(RabbitMQConfig.PREFIXO_ROTA_PRESENCA.length()));
+        }
+        return hubEventos.temAssinatura(chave);
+    }
+
+    // Usuário: eventos e efêmeros; presença: só eventos
+    private List<Binding> bindings(String chave) {
+        Binding eventos = new Binding(filaEventosNo.getName(), Binding.DestinationType.QUEUE,
+                                      RabbitMQConfig.EXCHANGE_EVENTOS, chave, null);
+        if (chave.startsWith(RabbitMQConfig.PREFIXO_ROTA_PRESENCA)) {
+            return List.of(eventos);
+        }
+        return List.of(eventos, new Binding(filaEfemerosNo.getName(), Binding.DestinationType.QUEUE,
+                                            RabbitMQConfig.EXCHANGE_EFEMEROS, chave, null));
+    }
+}
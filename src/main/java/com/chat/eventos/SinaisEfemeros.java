@@ -0,0 +1,64 @@
+package com.chat.eventos;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.chat.conversa.DiretorioConversas;
+import com.chat.model.Conversa;
+import com.google.protobuf.Timestamp;
+
+import br.com.meuprojeto.chat.v1.EphemeralSignal;
+import br.com.meuprojeto.chat.v1.ServerEvent;
+import br.com.meuprojeto.chat.v1.TypingSignal;
+
+/**
+ * Sinais efêmeros entre membros de uma conversa (ex: "digitando...").
+ *
+ * Vão direto do Frontend para os streams dos destinatários pela
+ * EXCHANGE_EFEMEROS (ver RoteadorEventos): não passam pelo Worker, não são
+ * gravados em "chat_messages" nem numerados pelo DiarioEventos, e podem ser
+ * descartados em qualquer ponto em que houver atraso.
+ */
+@Component
+public class SinaisEfemeros {
+
+    @Autowired
+    private DiretorioConversas diretorioConversas;
+
+    @Autowired
+    private RoteadorEventos roteadorEventos;
+
+
+    /**
+     * Avisa os outros membros que "userId" está (ou parou de estar) digitando.
+     * Devolve false se a conversa não existe ou o usuário não é membro dela.
+     */
+    public boolean digitando(String userId, String conversationId, boolean digitando) {
+        Conversa conversa = diretorioConversas.buscar(List.of(conversationId)).get(conversationId);
+        if (!DiretorioConversas.membro(conversa, userId)) {
+            return false;
+        }
+
+        Set<String> destinatarios = DiretorioConversas.participantes(conversa, List.of());
+        destinatarios.remove(userId);
+        if (destinatarios.isEmpty()) {
+            return true;
+        }
+
+        Instant agora = Instant.now();
+        ServerEvent evento = ServerEvent.newBuilder()
+                .setEventTime(Timestamp.newBuilder().setSeconds(agora.getEpochSecond()).setNanos(agora.getNano()))
+                .setEphemeralSignal(EphemeralSignal.newBuilder()
+                        .setConversationId(conversationId)
+                        .setUserId(userId)
+                        .setTyping(TypingSignal.newBuilder().setIsTyping(digitando)))
+                .build();
+
+        roteadorEventos.publicarEfemero(destinatarios, evento);
+        return true;
+    }
+}
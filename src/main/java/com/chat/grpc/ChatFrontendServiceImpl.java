@@ -1,39 +1,170 @@
 package com.chat.grpc;
 
-import com.chat.config.RabbitMQConfig;
+import com.chat.cache.CacheUltimasMensagens;
+import com.chat.conversa.AcumuladorLeituras;
+import com.chat.conversa.DiretorioConversas;
+import com.chat.eventos.AgrupadorStatus;
+import com.chat.eventos.Assinatura;
+import com.chat.eventos.DiarioEventos;
+import com.chat.eventos.HubEventos;
+import com.chat.eventos.SinaisEfemeros;
+import com.chat.mapper.ConversaMapper;
+import com.chat.model.ResumoConversa;
+import com.chat.presenca.InteressesPresenca;
+import com.chat.presenca.ServicoPresenca;
+import com.chat.publisher.MensagemPublisher;
+import com.chat.repository.ChatMessageReactiveRepository;
+import com.chat.repository.ChatMessageRepository;
+import com.chat.repository.CursorConversas;
+import com.chat.repository.CursorMensagens;
+import com.chat.repository.ResumoConversaReactiveRepository;
 import com.google.protobuf.Timestamp;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.lognet.springboot.grpc.GRpcService;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.TaskScheduler;
 
 import br.com.meuprojeto.chat.v1.CompleteMediaUploadRequest;
 import br.com.meuprojeto.chat.v1.CompleteMediaUploadResponse;
+import br.com.meuprojeto.chat.v1.ExportMessagesBatch;
+import br.com.meuprojeto.chat.v1.ExportMessagesRequest;
 import br.com.meuprojeto.chat.v1.GetConversationsRequest;
 import br.com.meuprojeto.chat.v1.GetConversationsResponse;
 import br.com.meuprojeto.chat.v1.GetMessagesRequest;
 import br.com.meuprojeto.chat.v1.GetMessagesResponse;
+import br.com.meuprojeto.chat.v1.HeartbeatRequest;
+import br.com.meuprojeto.chat.v1.HeartbeatResponse;
+import br.com.meuprojeto.chat.v1.MarkConversationReadRequest;
+import br.com.meuprojeto.chat.v1.MarkConversationReadResponse;
+import br.com.meuprojeto.chat.v1.Message;
+import br.com.meuprojeto.chat.v1.MessageStatus;
 import br.com.meuprojeto.chat.v1.PrepareMediaUploadRequest;
 import br.com.meuprojeto.chat.v1.PrepareMediaUploadResponse;
+import br.com.meuprojeto.chat.v1.SendTextMessageBatchResponse;
 import br.com.meuprojeto.chat.v1.SendTextMessageRequest;
 import br.com.meuprojeto.chat.v1.SendTextMessageResponse;
+import br.com.meuprojeto.chat.v1.SendTypingIndicatorRequest;
+import br.com.meuprojeto.chat.v1.SendTypingIndicatorResponse;
 import br.com.meuprojeto.chat.v1.ServerEvent;
 import br.com.meuprojeto.chat.v1.SubscribeToEventsRequest;
+import br.com.meuprojeto.chat.v1.WatchPresenceRequest;
+import br.com.meuprojeto.chat.v1.WatchPresenceResponse;
 import br.com.meuprojeto.chat.v1.ChatFrontendServiceGrpc.ChatFrontendServiceImplBase;
 import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 
 @GRpcService
 public class ChatFrontendServiceImpl extends ChatFrontendServiceImplBase {
 
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(ChatFrontendServiceImpl.class);
 
+    // Limites de paginação do GetMessages
+    private static final int TAMANHO_PADRAO_PAGINA = 50;
+    private static final int TAMANHO_MAXIMO_PAGINA = 200;
+
     
     @Autowired
-    private RabbitTemplate rabbittemplate;
+    private MensagemPublisher mensagemPublisher;
+
+    @Autowired
+    private TaskScheduler taskScheduler;
+
+    @Autowired
+    private ChatMessageRepository chatMessageRepository;
+
+    @Autowired
+    private CacheUltimasMensagens cacheUltimasMensagens;
+
+    @Autowired
+    private AcumuladorLeituras acumuladorLeituras;
+
+    @Autowired
+    private HubEventos hubEventos;
+
+    @Autowired
+    private DiarioEventos diarioEventos;
+
+    @Autowired
+    private AgrupadorStatus agrupadorStatus;
+
+    @Autowired
+    private ServicoPresenca servicoPresenca;
+
+    @Autowired
+    private InteressesPresenca interessesPresenca;
+
+    @Autowired
+    private SinaisEfemeros sinaisEfemeros;
+
+    @Autowired
+    private DiretorioConversas diretorioConversas;
+
+    // Leituras não bloqueantes (GetMessages, GetConversations)
+    @Autowired
+    private ChatMessageReactiveRepository chatMessageReactiveRepository;
+
+    @Autowired
+    private ResumoConversaReactiveRepository resumoConversaReactiveRepository;
+
+    // Parâmetros do envio em lote (SendTextMessageStream)
+    @Value("${chat.envio-lote.tamanho:500}")
+    private int tamanhoLoteEnvio;
+
+    @Value("${chat.envio-lote.janela-ms:20}")
+    private long janelaLoteEnvioMs;
+
+    @Value("${chat.envio-lote.max-lotes-em-voo:4}")
+    private int maxLotesEmVoo;
+
+    // Mensagens por lote do ExportMessages (e por leitura do cursor no MongoDB)
+    @Value("${chat.exportacao.tamanho-lote:500}")
+    private int tamanhoLoteExportacao;
+
+    // Threads que leem os cursores do ExportMessages e quantas leituras podem esperar por elas
+    @Value("${chat.exportacao.threads:4}")
+    private int threadsExportacao;
+
+    @Value("${chat.exportacao.fila-max:1000}")
+    private int filaMaximaExportacao;
+
+    private ExecutorService executorExportacao;
+
+
+    @PostConstruct
+    void inicializar() {
+        AtomicInteger contador = new AtomicInteger();
+        executorExportacao = new ThreadPoolExecutor(threadsExportacao, threadsExportacao, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(filaMaximaExportacao),
+                r -> new Thread(r, "exportacao-" + contador.incrementAndGet()));
+    }
+
+    @PreDestroy
+    void encerrar() {
+        executorExportacao.shutdownNow();
+    }
 
 
     @Override
@@ -47,24 +178,50 @@ public class ChatFrontendServiceImpl extends ChatFrontendServiceImplBase {
         String traceId = UUID.randomUUID().toString().substring(0, 8);
 
         log.info("[trace_id={}] Recebida SendTextMessage (id: {}) para conversa {}", traceId, clientId, conversationId);
-         
-         
-        // 2. Enfileirar no Broker (PRÓXIMO PASSO)
-        // Por enquanto, vamos apenas simular.
-        // rabbitTemplate.convertAndSend("exchange_mensagens", "routing_key_texto", request);
 
+        Optional<String> usuario = UsuarioInterceptor.usuarioAtual();
+        if (usuario.isEmpty()) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription("usuario nao identificado").asRuntimeException());
+            return;
+        }
+        try {
+            if (!diretorioConversas.participa(usuario.get(), conversationId)) {
+                responseObserver.onError(Status.PERMISSION_DENIED.withDescription("usuario nao participa da conversa").asRuntimeException());
+                return;
+            }
+        } catch (Exception e) {
+            responseObserver.onError(Status.UNAVAILABLE.withDescription("Falha ao consultar a conversa: " + e.getMessage()).asRuntimeException());
+            return;
+        }
 
+        // Enfileira no Broker com publisher confirm: a resposta só é enviada
+        // quando o RabbitMQ confirmar (ack) a mensagem, sem bloquear esta thread.
+        CompletableFuture<Void> confirmacao;
         try{
+            confirmacao = mensagemPublisher.publicarTexto(request, usuario.get());
+        } catch (Exception e) {
+            // Caso o rabbitmq esteja fora do ar
+            log.error("[trace_id={}] Falha ao enfileirar a mensagem (id: {}): {}", traceId, clientId, e.getMessage());
+            responseObserver.onError(Status.INTERNAL
+                                    .withDescription("Falha ao processar mensagem: " + e.getMessage())
+                                    .asRuntimeException());
+            return;
+        }
 
-            byte[] payloadBinario = request.toByteArray();
+        confirmacao.whenComplete((ok, erro) -> {
 
-            rabbittemplate.convertAndSend(
-                RabbitMQConfig.EXCHANGE_MENSAGENS,
-                "rota.texto." + conversationId,
-                payloadBinario
-            );
+            if (erro != null) {
+                Throwable causa = erro instanceof CompletionException ? erro.getCause() : erro;
+                log.error("[trace_id={}] Broker nao confirmou a mensagem (id: {}): {}", traceId, clientId, causa.toString());
 
-            log.info("[trace_id={}] Mensagem {} enfileirada com sucesso.", traceId, clientId);
+                Status status = causa instanceof TimeoutException ? Status.DEADLINE_EXCEEDED : Status.INTERNAL;
+                responseObserver.onError(status
+                                        .withDescription("Falha ao processar mensagem: " + causa.getMessage())
+                                        .asRuntimeException());
+                return;
+            }
+
+            log.info("[trace_id={}] Mensagem {} confirmada pelo Broker.", traceId, clientId);
 
             Timestamp acceptedTimestamp = Timestamp.newBuilder()
                         .setSeconds(System.currentTimeMillis() / 1000)
@@ -77,16 +234,45 @@ public class ChatFrontendServiceImpl extends ChatFrontendServiceImplBase {
 
             responseObserver.onNext(response);
             responseObserver.onCompleted();
+        });
 
-        } catch (Exception e) {
-            // Caso o rabbitmq esteja fora do ar
-            log.error("[trace_id={}] Falha ao enfileirar a mensagem (id: {}): {}", traceId, clientId, e.getMessage());
-            responseObserver.onError(Status.INTERNAL
-                                    .withDescription("Falha ao processar mensagem: " + e.getMessage())
-                                    .asRuntimeException());
+     
+    }
+
+    @Override
+    public StreamObserver<SendTextMessageRequest> sendTextMessageStream(StreamObserver<SendTextMessageBatchResponse> responseObserver) {
+
+        Optional<String> usuario = UsuarioInterceptor.usuarioAtual();
+        if (usuario.isEmpty()) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription("usuario nao identificado").asRuntimeException());
+            return new StreamObserver<>() {
+                @Override
+                public void onNext(SendTextMessageRequest request) {
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                }
+
+                @Override
+                public void onCompleted() {
+                }
+            };
         }
 
-     
+        String traceId = UUID.randomUUID().toString().substring(0, 8);
+        log.info("[trace_id={}] Aberto stream SendTextMessageStream", traceId);
+
+        return new EnvioTextoStreamObserver(
+            (ServerCallStreamObserver<SendTextMessageBatchResponse>) responseObserver,
+            mensagemPublisher,
+            diretorioConversas,
+            taskScheduler,
+            tamanhoLoteEnvio,
+            Duration.ofMillis(janelaLoteEnvioMs),
+            maxLotesEmVoo,
+            usuario.get(),
+            traceId);
     }
 
     
@@ -138,23 +324,368 @@ public class ChatFrontendServiceImpl extends ChatFrontendServiceImplBase {
 
     @Override
     public void getMessages(GetMessagesRequest request, StreamObserver<GetMessagesResponse> responseObserver) {
-        log.warn("GetMessages ainda não implementado");
 
-        responseObserver.onError(Status.UNIMPLEMENTED.withDescription("GetMessages nao implementado").asRuntimeException());
+        Optional<String> usuario = UsuarioInterceptor.usuarioAtual();
+        if (usuario.isEmpty()) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription("usuario nao identificado").asRuntimeException());
+            return;
+        }
+
+        String conversationId = request.getConversationId();
+        if (conversationId.isEmpty()) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("conversation_id obrigatorio").asRuntimeException());
+            return;
+        }
+
+        int pageSize = request.getPageSize() > 0 ? Math.min(request.getPageSize(), TAMANHO_MAXIMO_PAGINA) : TAMANHO_PADRAO_PAGINA;
+
+        CursorMensagens cursor = null;
+        if (!request.getPageToken().isEmpty()) {
+            try {
+                cursor = CursorMensagens.decodificar(request.getPageToken());
+            } catch (IllegalArgumentException e) {
+                responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("page_token invalido").asRuntimeException());
+                return;
+            }
+        }
+
+        CursorMensagens apos = cursor;
+        Mono<List<Message>> pagina = verificarMembro(usuario.get(), conversationId)
+                .then(Mono.defer(() -> apos == null
+                        ? buscarPrimeiraPagina(conversationId, pageSize)
+                        : buscarPagina(conversationId, apos, pageSize)));
+
+        Mono<GetMessagesResponse> resposta = pagina.map(mensagens -> {
+            // A página vem com um item a mais quando existe próxima página
+            boolean temProxima = mensagens.size() > pageSize;
+            if (temProxima) {
+                mensagens = mensagens.subList(0, pageSize);
+            }
+
+            GetMessagesResponse.Builder response = GetMessagesResponse.newBuilder().addAllMessages(mensagens);
+
+            if (temProxima) {
+                response.setNextPageToken(CursorMensagens.de(mensagens.get(mensagens.size() - 1)).codificar());
+            }
+            return response.build();
+        });
+
+        responderAssincrono(resposta, responseObserver, "Falha ao buscar mensagens da conversa " + conversationId);
+    }
+
+    /**
+     * A primeira página sai da cauda quente em cache sempre que possível. Na falta,
+     * lê a cauda inteira do MongoDB (uma consulta só) e já deixa em cache.
+     */
+    private Mono<List<Message>> buscarPrimeiraPagina(String conversationId, int pageSize) {
+        Optional<List<Message>> emCache = cacheUltimasMensagens.primeiraPagina(conversationId, pageSize);
+        if (emCache.isPresent()) {
+            return Mono.just(emCache.get());
+        }
+
+        if (pageSize > cacheUltimasMensagens.mensagensPorConversa()) {
+            return buscarPagina(conversationId, null, pageSize);
+        }
+
+        return buscarPagina(conversationId, null, cacheUltimasMensagens.mensagensPorConversa())
+                .map(cauda -> {
+                    cacheUltimasMensagens.carregar(conversationId, cauda);
+                    return cauda.subList(0, Math.min(cauda.size(), pageSize + 1));
+                });
+    }
+
+    /**
+     * Falha com PERMISSION_DENIED se o usuário não é membro da conversa. O
+     * DiretorioConversas pode ir ao MongoDB (bloqueante), então a consulta
+     * não roda na thread do gRPC.
+     */
+    private Mono<Void> verificarMembro(String userId, String conversationId) {
+        return Mono.fromCallable(() -> diretorioConversas.participa(userId, conversationId))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(membro -> membro
+                        ? Mono.<Void>empty()
+                        : Mono.error(Status.PERMISSION_DENIED.withDescription("usuario nao participa da conversa").asRuntimeException()));
+    }
+
+    // Busca um item a mais só para saber se existe próxima página
+    private Mono<List<Message>> buscarPagina(String conversationId, CursorMensagens cursor, int pageSize) {
+        return chatMessageReactiveRepository.buscarPagina(conversationId, cursor, pageSize + 1).collectList();
+    }
+
+    /**
+     * Responde quando a consulta reativa terminar, sem segurar a thread do gRPC
+     * enquanto o MongoDB responde. Se o cliente cancelar, a consulta é cancelada.
+     */
+    private <T> void responderAssincrono(Mono<T> resposta, StreamObserver<T> responseObserver, String descricaoFalha) {
+        Disposable consulta = resposta.subscribe(
+            valor -> {
+                responseObserver.onNext(valor);
+                responseObserver.onCompleted();
+            },
+            erro -> {
+                if (erro instanceof StatusRuntimeException status) {
+                    responseObserver.onError(status);
+                    return;
+                }
+                log.error("[FRONTEND] {}: {}", descricaoFalha, erro.getMessage());
+                responseObserver.onError(Status.INTERNAL
+                                        .withDescription(descricaoFalha + ": " + erro.getMessage())
+                                        .asRuntimeException());
+            });
+
+        ((ServerCallStreamObserver<T>) responseObserver).setOnCancelHandler(consulta::dispose);
+    }
+
+    @Override
+    public void exportMessages(ExportMessagesRequest request, StreamObserver<ExportMessagesBatch> responseObserver) {
+
+        Optional<String> usuario = UsuarioInterceptor.usuarioAtual();
+        if (usuario.isEmpty()) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription("usuario nao identificado").asRuntimeException());
+            return;
+        }
+
+        String conversationId = request.getConversationId();
+        if (conversationId.isEmpty()) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("conversation_id obrigatorio").asRuntimeException());
+            return;
+        }
+
+        CursorMensagens retomada = null;
+        if (!request.getResumeToken().isEmpty()) {
+            try {
+                retomada = CursorMensagens.decodificar(request.getResumeToken());
+            } catch (IllegalArgumentException e) {
+                responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("resume_token invalido").asRuntimeException());
+                return;
+            }
+        }
+
+        Instant desde = request.hasSince()
+                ? Instant.ofEpochSecond(request.getSince().getSeconds(), request.getSince().getNanos())
+                : null;
+
+        String traceId = UUID.randomUUID().toString().substring(0, 8);
+        log.info("[trace_id={}] Recebida ExportMessages para conversa {}", traceId, conversationId);
+
+        // A conversa é conferida e o cursor aberto na thread do executor (ver ExportacaoMensagens)
+        CursorMensagens apos = retomada;
+        new ExportacaoMensagens(
+            (ServerCallStreamObserver<ExportMessagesBatch>) responseObserver,
+            () -> {
+                if (!diretorioConversas.participa(usuario.get(), conversationId)) {
+                    throw Status.PERMISSION_DENIED.withDescription("usuario nao participa da conversa").asRuntimeException();
+                }
+                return chatMessageRepository.abrirHistorico(conversationId, apos, desde, tamanhoLoteExportacao);
+            },
+            tamanhoLoteExportacao,
+            executorExportacao,
+            traceId).iniciar();
     }
 
     @Override
     public void getConversations(GetConversationsRequest request, StreamObserver<GetConversationsResponse> responseObserver) {
-        log.warn("getConversations nao implementado");
 
-        responseObserver.onError(Status.UNIMPLEMENTED.withDescription("getConversations nao implementado").asRuntimeException());
+        Optional<String> usuario = UsuarioInterceptor.usuarioAtual();
+        if (usuario.isEmpty()) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription("usuario nao identificado").asRuntimeException());
+            return;
+        }
+
+        int pageSize = request.getPageSize() > 0 ? Math.min(request.getPageSize(), TAMANHO_MAXIMO_PAGINA) : TAMANHO_PADRAO_PAGINA;
+
+        CursorConversas cursor = null;
+        if (!request.getPageToken().isEmpty()) {
+            try {
+                cursor = CursorConversas.decodificar(request.getPageToken());
+            } catch (IllegalArgumentException e) {
+                responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("page_token invalido").asRuntimeException());
+                return;
+            }
+        }
+
+        // Resumos mantidos pelo Worker: uma leitura por faixa no índice, sem agregar mensagens.
+        // Busca um item a mais só para saber se existe próxima página
+        Mono<GetConversationsResponse> resposta = resumoConversaReactiveRepository
+                .buscarPagina(usuario.get(), cursor, pageSize + 1)
+                .collectList()
+                .map(pagina -> {
+                    boolean temProxima = pagina.size() > pageSize;
+                    if (temProxima) {
+                        pagina = pagina.subList(0, pageSize);
+                    }
+
+                    GetConversationsResponse.Builder response = GetConversationsResponse.newBuilder();
+                    for (ResumoConversa resumo : pagina) {
+                        // Marcas de leitura deste nó que ainda não foram gravadas
+                        resumo.setReadSeq(Math.max(resumo.getReadSeq(), acumuladorLeituras.pendente(usuario.get(), resumo.getConversationId())));
+                        response.addConversations(ConversaMapper.paraProto(resumo));
+                    }
+
+                    if (temProxima) {
+                        ResumoConversa ultimo = pagina.get(pagina.size() - 1);
+                        response.setNextPageToken(new CursorConversas(ultimo.getLastActivity(), ultimo.getConversationId()).codificar());
+                    }
+                    return response.build();
+                });
+
+        responderAssincrono(resposta, responseObserver, "Falha ao buscar conversas do usuario " + usuario.get());
+    }
+
+    @Override
+    public void markConversationRead(MarkConversationReadRequest request, StreamObserver<MarkConversationReadResponse> responseObserver) {
+
+        Optional<String> usuario = UsuarioInterceptor.usuarioAtual();
+        if (usuario.isEmpty()) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription("usuario nao identificado").asRuntimeException());
+            return;
+        }
+        if (request.getConversationId().isEmpty() || request.getReadUpToSeq() < 0) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("conversation_id obrigatorio e read_up_to_seq >= 0").asRuntimeException());
+            return;
+        }
+
+        String conversationId = request.getConversationId();
+        // 0 = marca como lido tudo o que já existe (a marca é limitada à última seq da conversa)
+        long ateSeq = request.getReadUpToSeq() == 0 ? Long.MAX_VALUE : request.getReadUpToSeq();
+
+        // A marca vai para o AcumuladorLeituras (gravada em lote depois); aqui só lê o resumo
+        Mono<MarkConversationReadResponse> resposta = resumoConversaReactiveRepository
+                .findById(ResumoConversa.idDe(usuario.get(), conversationId))
+                .switchIfEmpty(Mono.error(Status.NOT_FOUND.withDescription("conversa nao encontrada").asRuntimeException()))
+                .flatMap(resumo -> {
+                    long lidaAntes = Math.max(resumo.getReadSeq(), acumuladorLeituras.pendente(usuario.get(), conversationId));
+                    long marca = Math.min(ateSeq, resumo.getLastSeq());
+                    acumuladorLeituras.registrar(usuario.get(), conversationId, marca);
+
+                    resumo.setReadSeq(Math.max(resumo.getReadSeq(), acumuladorLeituras.pendente(usuario.get(), conversationId)));
+                    MarkConversationReadResponse lida = MarkConversationReadResponse.newBuilder().setUnreadCount(resumo.getUnreadCount()).build();
+                    if (marca <= lidaAntes) {
+                        return Mono.just(lida);
+                    }
+
+                    // Cada remetente do trecho recém-lido recebe o READ da sua última mensagem nele
+                    // (agrupado com os dos outros membros); o READ vale para as anteriores dele
+                    return chatMessageReactiveRepository.ultimasPorRemetente(conversationId, lidaAntes, marca, usuario.get())
+                            .doOnNext(ultima -> agrupadorStatus.registrar(ultima.getSenderId(), ultima.getId(), usuario.get(), MessageStatus.READ))
+                            .then(Mono.just(lida))
+                            .onErrorResume(erro -> {
+                                // A marca já foi registrada; só os avisos de leitura se perdem
+                                log.warn("[FRONTEND] Falha ao buscar os remetentes lidos da conversa {}: {}", conversationId, erro.getMessage());
+                                return Mono.just(lida);
+                            });
+                });
+
+        responderAssincrono(resposta, responseObserver, "Falha ao marcar conversa " + conversationId + " como lida");
     }
 
     @Override
     public void subscribeToEvents(SubscribeToEventsRequest request, StreamObserver<ServerEvent> responseObserver) {
-        log.warn("subscribeToEvents nao implementado");
 
-        responseObserver.onError(Status.UNIMPLEMENTED.withDescription("subscriboToEvents nao implementado").asRuntimeException());
+        Optional<String> usuario = UsuarioInterceptor.usuarioAtual();
+        if (usuario.isEmpty()) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription("usuario nao identificado").asRuntimeException());
+            return;
+        }
+
+        long ultimoEvento = 0;
+        if (request.hasLastEventId() && !request.getLastEventId().getValue().isEmpty()) {
+            ultimoEvento = DiarioEventos.seqDe(request.getLastEventId().getValue());
+            if (ultimoEvento <= 0) {
+                responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("last_event_id invalido").asRuntimeException());
+                return;
+            }
+        }
+
+        // O stream fica aberto até o cliente cancelar; os eventos chegam pelo HubEventos
+        ServerCallStreamObserver<ServerEvent> stream = (ServerCallStreamObserver<ServerEvent>) responseObserver;
+        Assinatura assinatura = request.getMaxBatchSize() > 1
+                ? hubEventos.criarAssinatura(usuario.get(), stream, request.getMaxBatchSize(), request.getMaxBatchDelayMs())
+                : hubEventos.criarAssinatura(usuario.get(), stream);
+
+        stream.setOnCancelHandler(() -> hubEventos.remover(assinatura));
+        // A fila da assinatura só é esvaziada enquanto o transporte aceita mais dados
+        stream.setOnReadyHandler(assinatura::esvaziar);
+
+        if (ultimoEvento > 0) {
+            // Reenvia o que o cliente perdeu antes de passar para os eventos ao vivo
+            diarioEventos.retomar(assinatura, ultimoEvento);
+            log.info("[FRONTEND] Usuario {} retomando eventos depois de {}", usuario.get(), ultimoEvento);
+        } else {
+            hubEventos.registrar(assinatura);
+            log.info("[FRONTEND] Usuario {} inscrito nos eventos", usuario.get());
+        }
+    }
+
+    @Override
+    public void heartbeat(HeartbeatRequest request, StreamObserver<HeartbeatResponse> responseObserver) {
+
+        Optional<String> usuario = UsuarioInterceptor.usuarioAtual();
+        if (usuario.isEmpty()) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription("usuario nao identificado").asRuntimeException());
+            return;
+        }
+
+        int proximo = servicoPresenca.heartbeat(usuario.get());
+        responseObserver.onNext(HeartbeatResponse.newBuilder().setNextHeartbeatSeconds(proximo).build());
+        responseObserver.onCompleted();
+    }
+
+    @Override
+    public void watchPresence(WatchPresenceRequest request, StreamObserver<WatchPresenceResponse> responseObserver) {
+
+        Optional<String> usuario = UsuarioInterceptor.usuarioAtual();
+        if (usuario.isEmpty()) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription("usuario nao identificado").asRuntimeException());
+            return;
+        }
+        if (request.getUserIdsCount() > interessesPresenca.observadosMax()) {
+            responseObserver.onError(Status.INVALID_ARGUMENT
+                                    .withDescription("no maximo " + interessesPresenca.observadosMax() + " usuarios observados")
+                                    .asRuntimeException());
+            return;
+        }
+
+        // As mudanças chegam pelo SubscribeToEvents; a resposta traz o estado atual
+        interessesPresenca.definir(usuario.get(), request.getUserIdsList());
+
+        Mono<WatchPresenceResponse> resposta = request.getUserIdsCount() == 0
+                ? Mono.just(WatchPresenceResponse.getDefaultInstance())
+                : servicoPresenca.consultar(request.getUserIdsList())
+                        .map(atuais -> WatchPresenceResponse.newBuilder()
+                                .addAllCurrent(atuais)
+                                .setExpiresInSeconds(interessesPresenca.ttlSegundos())
+                                .build());
+
+        responderAssincrono(resposta, responseObserver, "Falha ao consultar presenca");
+    }
+
+    @Override
+    public void sendTypingIndicator(SendTypingIndicatorRequest request, StreamObserver<SendTypingIndicatorResponse> responseObserver) {
+
+        Optional<String> usuario = UsuarioInterceptor.usuarioAtual();
+        if (usuario.isEmpty()) {
+            responseObserver.onError(Status.UNAUTHENTICATED.withDescription("usuario nao identificado").asRuntimeException());
+            return;
+        }
+        if (request.getConversationId().isEmpty()) {
+            responseObserver.onError(Status.INVALID_ARGUMENT.withDescription("conversation_id obrigatorio").asRuntimeException());
+            return;
+        }
+
+        // Caminho efêmero: nada de Worker nem MongoDB, só os streams dos outros membros
+        try {
+            if (!sinaisEfemeros.digitando(usuario.get(), request.getConversationId(), request.getIsTyping())) {
+                responseObserver.onError(Status.PERMISSION_DENIED.withDescription("usuario nao participa da conversa").asRuntimeException());
+                return;
+            }
+        } catch (Exception e) {
+            responseObserver.onError(Status.UNAVAILABLE.withDescription("Falha ao enviar sinal: " + e.getMessage()).asRuntimeException());
+            return;
+        }
+
+        responseObserver.onNext(SendTypingIndicatorResponse.getDefaultInstance());
+        responseObserver.onCompleted();
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,253 @@
+package com.chat.grpc;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.TaskScheduler;
+
+import com.chat.conversa.DiretorioConversas;
+import com.chat.model.Conversa;
+import com.chat.publisher.MensagemPublisher;
+import com.google.protobuf.Timestamp;
+
+import br.com.meuprojeto.chat.v1.SendTextMessageBatchResponse;
+import br.com.meuprojeto.chat.v1.SendTextMessageRequest;
+import br.com.meuprojeto.chat.v1.SendTextMessageResponse;
+import br.com.meuprojeto.chat.v1.SendTextMessageResult;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.grpc.stub.StreamObserver;
+
+/**
+ * Trata um stream de SendTextMessageStream.
+ *
+ * As requisições são acumuladas até completar um lote (tamanho) ou até a janela
+ * de tempo vencer. Cada lote é publicado de uma vez no Broker e, quando todas as
+ * confirmações chegam, o cliente recebe um único SendTextMessageBatchResponse.
+ * O controle de fluxo de entrada é manual: só pedimos mais mensagens ao cliente
+ * conforme os lotes em voo são confirmados.
+ *
+ * Mensagens para conversas de que o remetente não é membro não são
+ * publicadas: saem no lote como recusadas (PERMISSION_DENIED), sem derrubar
+ * o stream.
+ */
+class EnvioTextoStreamObserver implements StreamObserver<SendTextMessageRequest> {
+
+    private static final Logger log = LoggerFactory.getLogger(EnvioTextoStreamObserver.class);
+
+    private final ServerCallStreamObserver<SendTextMessageBatchResponse> responseObserver;
+    private final MensagemPublisher mensagemPublisher;
+    private final DiretorioConversas diretorioConversas;
+    private final TaskScheduler taskScheduler;
+    private final int tamanhoLote;
+    private final Duration janela;
+    private final String remetente;
+    private final String traceId;
+
+    // Estado protegido por "this"
+    private List<SendTextMessageRequest> pendentes = new ArrayList<>();
+    private ScheduledFuture<?> envioAgendado;
+    private int lotesEmVoo;
+    private boolean clienteConcluiu;
+    private boolean encerrado;
+
+
+    EnvioTextoStreamObserver(ServerCallStreamObserver<SendTextMessageBatchResponse> responseObserver,
+                             MensagemPublisher mensagemPublisher, DiretorioConversas diretorioConversas,
+                             TaskScheduler taskScheduler,
+                             int tamanhoLote, Duration janela, int lotesMaximosEmVoo,
+                             String remetente, String traceId) {
+        this.responseObserver = responseObserver;
+        this.mensagemPublisher = mensagemPublisher;
+        this.diretorioConversas = diretorioConversas;
+        this.taskScheduler = taskScheduler;
+        this.tamanhoLote = tamanhoLote;
+        this.janela = janela;
+        this.remetente = remetente;
+        this.traceId = traceId;
+
+        responseObserver.disableAutoRequest();
+        responseObserver.setOnCancelHandler(this::cancelar);
+        responseObserver.request(tamanhoLote * lotesMaximosEmVoo);
+    }
+
+
+    @Override
+    public synchronized void onNext(SendTextMessageRequest request) {
+        if (encerrado) {
+            return;
+        }
+
+        pendentes.add(request);
+
+        if (pendentes.size() >= tamanhoLote) {
+            enviarPendentes();
+        } else if (envioAgendado == null) {
+            envioAgendado = taskScheduler.schedule(this::enviarPorJanela, Instant.now().plus(janela));
+        }
+    }
+
+    @Override
+    public synchronized void onError(Throwable t) {
+        log.warn("[trace_id={}] Stream de envio encerrado pelo cliente: {}", traceId, t.getMessage());
+        cancelar();
+    }
+
+    @Override
+    public synchronized void onCompleted() {
+        if (encerrado) {
+            return;
+        }
+        clienteConcluiu = true;
+        enviarPendentes();
+        concluirSePossivel();
+    }
+
+
+    private synchronized void enviarPorJanela() {
+        envioAgendado = null;
+        if (!encerrado) {
+            enviarPendentes();
+        }
+    }
+
+    private void enviarPendentes() {
+        if (envioAgendado != null) {
+            envioAgendado.cancel(false);
+            envioAgendado = null;
+        }
+        if (pendentes.isEmpty()) {
+            return;
+        }
+
+        List<SendTextMessageRequest> lote = pendentes;
+        pendentes = new ArrayList<>();
+        lotesEmVoo++;
+
+        List<CompletableFuture<Void>> confirmacoes = publicarPermitidas(lote);
+
+        // Ignora o resultado individual aqui: cada confirmação é avaliada ao montar a resposta
+        CompletableFuture.allOf(confirmacoes.stream()
+                        .map(c -> c.exceptionally(erro -> null))
+                        .toArray(CompletableFuture[]::new))
+                .thenRun(() -> responderLote(lote, confirmacoes));
+    }
+
+    /**
+     * Publica só as mensagens de conversas de que o remetente é membro (uma
+     * consulta ao DiretorioConversas por lote). Devolve uma confirmação por
+     * mensagem do lote, na mesma ordem.
+     */
+    private List<CompletableFuture<Void>> publicarPermitidas(List<SendTextMessageRequest> lote) {
+        Set<String> conversas = lote.stream().map(SendTextMessageRequest::getConversationId).collect(Collectors.toSet());
+        Map<String, Conversa> encontradas;
+        try {
+            encontradas = diretorioConversas.buscar(conversas);
+        } catch (RuntimeException e) {
+            log.error("[trace_id={}] Falha ao consultar as conversas do lote: {}", traceId, e.getMessage());
+            CompletableFuture<Void> falha = CompletableFuture.failedFuture(
+                    Status.UNAVAILABLE.withDescription("Falha ao consultar a conversa").asRuntimeException());
+            return lote.stream().map(r -> falha).collect(Collectors.toList());
+        }
+
+        List<SendTextMessageRequest> permitidas = new ArrayList<>(lote.size());
+        for (SendTextMessageRequest request : lote) {
+            if (DiretorioConversas.membro(encontradas.get(request.getConversationId()), remetente)) {
+                permitidas.add(request);
+            }
+        }
+        if (permitidas.size() == lote.size()) {
+            return mensagemPublisher.publicarLoteTexto(lote, remetente);
+        }
+
+        List<CompletableFuture<Void>> publicadas = permitidas.isEmpty()
+                ? List.of()
+                : mensagemPublisher.publicarLoteTexto(permitidas, remetente);
+        CompletableFuture<Void> recusada = CompletableFuture.failedFuture(
+                Status.PERMISSION_DENIED.withDescription("usuario nao participa da conversa").asRuntimeException());
+
+        List<CompletableFuture<Void>> confirmacoes = new ArrayList<>(lote.size());
+        int proxima = 0;
+        for (SendTextMessageRequest request : lote) {
+            boolean permitida = proxima < permitidas.size() && permitidas.get(proxima) == request;
+            confirmacoes.add(permitida ? publicadas.get(proxima++) : recusada);
+        }
+        return confirmacoes;
+    }
+
+    private synchronized void responderLote(List<SendTextMessageRequest> lote, List<CompletableFuture<Void>> confirmacoes) {
+        lotesEmVoo--;
+        if (encerrado) {
+            return;
+        }
+
+        Timestamp acceptedTimestamp = Timestamp.newBuilder()
+                    .setSeconds(System.currentTimeMillis() / 1000)
+                    .build();
+
+        SendTextMessageBatchResponse.Builder resposta = SendTextMessageBatchResponse.newBuilder();
+        int recusadas = 0;
+
+        for (int i = 0; i < lote.size(); i++) {
+            String clientId = lote.get(i).getClientMessageId();
+            SendTextMessageResult.Builder resultado = SendTextMessageResult.newBuilder().setClientMessageId(clientId);
+
+            String motivoFalha = motivoFalha(confirmacoes.get(i));
+            if (motivoFalha != null) {
+                recusadas++;
+                resultado.setErrorMessage(motivoFalha);
+            } else {
+                resultado.setAccepted(SendTextMessageResponse.newBuilder()
+                        .setServerMessageId(clientId)
+                        .setAcceptedAt(acceptedTimestamp));
+            }
+            resposta.addResults(resultado);
+        }
+
+        if (recusadas > 0) {
+            log.warn("[trace_id={}] Lote com {} mensagens, {} recusadas pelo Broker.", traceId, lote.size(), recusadas);
+        }
+
+        responseObserver.onNext(resposta.build());
+
+        // Libera o cliente para enviar mais mensagens
+        responseObserver.request(lote.size());
+        concluirSePossivel();
+    }
+
+    private static String motivoFalha(CompletableFuture<Void> confirmacao) {
+        try {
+            confirmacao.join();
+            return null;
+        } catch (CompletionException e) {
+            return String.valueOf(e.getCause().getMessage());
+        }
+    }
+
+    private void concluirSePossivel() {
+        if (clienteConcluiu && lotesEmVoo == 0 && pendentes.isEmpty() && !encerrado) {
+            encerrado = true;
+            responseObserver.onCompleted();
+            log.info("[trace_id={}] Stream de envio concluído.", traceId);
+        }
+    }
+
+    private synchronized void cancelar() {
+        encerrado = true;
+        pendentes.clear();
+        if (envioAgendado != null) {
+            envioAgendado.cancel(false);
+            envioAgendado = null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.chat.grpc;
+
+import java.util.Iterator;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.chat.repository.CursorMensagens;
+
+import br.com.meuprojeto.chat.v1.ExportMessagesBatch;
+import br.com.meuprojeto.chat.v1.Message;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
+
+/**
+ * Uma exportação em andamento (ExportMessages): lê o histórico de um único
+ * cursor do MongoDB e envia em lotes, respeitando o controle de fluxo do gRPC.
+ *
+ * Só lê o próximo lote do cursor enquanto o transporte está pronto (isReady);
+ * quando o cliente não dá conta, para e espera o onReadyHandler. Assim o
+ * servidor nunca acumula mais que um lote por stream, por mais lento que seja
+ * o cliente. Cada lote leva um resume_token para o cliente retomar se o
+ * stream cair (ex: cursor expirado no MongoDB depois de muito tempo parado).
+ *
+ * Ler o cursor bloqueia (cada lote é uma ida ao MongoDB), então as leituras
+ * rodam no executor das exportações, nunca na thread do gRPC. Isso inclui
+ * abrir o cursor (a consulta já traz o primeiro lote): ele só é aberto pela
+ * primeira tarefa, então uma exportação recusada por falta de threads nem
+ * chega ao MongoDB. No máximo uma tarefa por exportação fica agendada ou
+ * rodando; só ela toca no cursor.
+ */
+class ExportacaoMensagens {
+
+    private static final Logger log = LoggerFactory.getLogger(ExportacaoMensagens.class);
+
+    private final ServerCallStreamObserver<ExportMessagesBatch> responseObserver;
+    private final Supplier<Stream<Message>> abrirHistorico;
+    private final int tamanhoLote;
+    private final Executor executor;
+    private final String traceId;
+
+    // Já existe uma tarefa de leitura agendada ou rodando
+    private final AtomicBoolean agendada = new AtomicBoolean();
+    private volatile boolean cancelada;
+    private volatile boolean encerrado;
+
+    // Aberto pela primeira tarefa de leitura; volatile só para encerrar() de outra thread
+    private volatile Stream<Message> historico;
+    // Só acessados pela tarefa de leitura
+    private Iterator<Message> cursor;
+    private long enviadas;
+
+
+    ExportacaoMensagens(ServerCallStreamObserver<ExportMessagesBatch> responseObserver,
+                        Supplier<Stream<Message>> abrirHistorico, int tamanhoLote, Executor executor, String traceId) {
+        this.responseObserver = responseObserver;
+        this.abrirHistorico = abrirHistorico;
+        this.tamanhoLote = tamanhoLote;
+        this.executor = executor;
+        this.traceId = traceId;
+    }
+
+    void iniciar() {
+        responseObserver.setOnCancelHandler(this::cancelar);
+        responseObserver.setOnReadyHandler(this::agendar);
+        agendar();
+    }
+
+
+    private void agendar() {
+        if (encerrado || !agendada.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            executor.execute(this::enviarEnquantoPronto);
+        } catch (RejectedExecutionException e) {
+            // Exportações demais esperando leitura: o cliente tenta de novo mais tarde
+            encerrar();
+            log.warn("[trace_id={}] Exportação recusada depois de {} mensagens: sem threads livres.", traceId, enviadas);
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED
+                                    .withDescription("Exportacoes demais em andamento, tente mais tarde")
+                                    .asRuntimeException());
+        }
+    }
+
+    private void enviarEnquantoPronto() {
+        try {
+            enviarLotes();
+        } finally {
+            agendada.set(false);
+        }
+        // Um onReady ou cancelamento que chegou durante a tarefa foi ignorado por agendar()
+        if (!encerrado && (cancelada || responseObserver.isReady())) {
+            agendar();
+        }
+    }
+
+    private void enviarLotes() {
+        if (encerrado) {
+            return;
+        }
+
+        try {
+            // Sem isReady nem o hasNext é chamado: ele buscaria o próximo lote no MongoDB
+            while (responseObserver.isReady()) {
+                if (cancelada) {
+                    log.info("[trace_id={}] Exportação cancelada pelo cliente depois de {} mensagens.", traceId, enviadas);
+                    encerrar();
+                    return;
+                }
+                if (cursor == null) {
+                    historico = abrirHistorico.get();
+                    cursor = historico.iterator();
+                }
+                if (!cursor.hasNext()) {
+                    encerrar();
+                    responseObserver.onCompleted();
+                    log.info("[trace_id={}] Exportação concluída: {} mensagens.", traceId, enviadas);
+                    return;
+                }
+
+                ExportMessagesBatch.Builder lote = ExportMessagesBatch.newBuilder();
+                Message ultima = null;
+
+                while (lote.getMessagesCount() < tamanhoLote && cursor.hasNext()) {
+                    ultima = cursor.next();
+                    lote.addMessages(ultima);
+                }
+
+                lote.setResumeToken(CursorMensagens.de(ultima).codificar());
+                responseObserver.onNext(lote.build());
+                enviadas += lote.getMessagesCount();
+            }
+
+            if (cancelada) {
+                log.info("[trace_id={}] Exportação cancelada pelo cliente depois de {} mensagens.", traceId, enviadas);
+                encerrar();
+            }
+
+        } catch (StatusRuntimeException e) {
+            // Recusada ao abrir (ex: usuário não participa da conversa)
+            encerrar();
+            log.warn("[trace_id={}] Exportação recusada: {}", traceId, e.getStatus());
+            responseObserver.onError(e);
+
+        } catch (Exception e) {
+            encerrar();
+            log.error("[trace_id={}] Falha na exportação depois de {} mensagens: {}", traceId, enviadas, e.getMessage());
+            // O cliente pode retomar do último resume_token recebido
+            responseObserver.onError(Status.UNAVAILABLE
+                                    .withDescription("Falha ao ler historico: " + e.getMessage())
+                                    .asRuntimeException());
+        }
+    }
+
+    /**
+     * O cursor é fechado pela tarefa de leitura, que é a única que o usa.
+     */
+    private void cancelar() {
+        cancelada = true;
+        agendar();
+    }
+
+    private void encerrar() {
+        encerrado = true;
+        Stream<Message> aberto = historico;
+        if (aberto != null) {
+            aberto.close();
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.chat.grpc;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Optional;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.lognet.springboot.grpc.GRpcGlobalInterceptor;
+import org.springframework.beans.factory.annotation.Value;
+
+import io.grpc.Context;
+import io.grpc.Contexts;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+import io.grpc.Status;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Lê o id do usuário do header "x-user-id" e o coloca no Context do gRPC.
+ *
+ * A autenticação em si acontece antes (gateway), que repassa o usuário já
+ * validado nesse header. Para um cliente não conseguir se passar por outro
+ * falando direto com o serviço, o gateway assina o header: "x-user-signature"
+ * é o HMAC-SHA256 (Base64 URL, sem padding) de "<x-user-id>.<x-user-ts>" com
+ * o segredo compartilhado "chat.gateway.segredo", e "x-user-ts" (epoch em
+ * segundos) limita por quanto tempo uma assinatura capturada vale
+ * ("chat.gateway.validade-s").
+ *
+ * Chamadas sem "x-user-id" seguem sem usuário (cada RPC decide se precisa
+ * dele); com o header e sem assinatura válida, são recusadas com
+ * UNAUTHENTICATED.
+ */
+@GRpcGlobalInterceptor
+public class UsuarioInterceptor implements ServerInterceptor {
+
+    public static final Metadata.Key<String> HEADER_USUARIO = Metadata.Key.of("x-user-id", Metadata.ASCII_STRING_MARSHALLER);
+    public static final Metadata.Key<String> HEADER_INSTANTE = Metadata.Key.of("x-user-ts", Metadata.ASCII_STRING_MARSHALLER);
+    public static final Metadata.Key<String> HEADER_ASSINATURA = Metadata.Key.of("x-user-signature", Metadata.ASCII_STRING_MARSHALLER);
+
+    private static final String ALGORITMO = "HmacSHA256";
+
+    private static final Context.Key<String> USUARIO_ID = Context.key("usuario-id");
+
+
+    @Value("${chat.gateway.segredo}")
+    private String segredo;
+
+    @Value("${chat.gateway.validade-s:300}")
+    private long validadeSegundos;
+
+    private SecretKeySpec chave;
+
+
+    @PostConstruct
+    void inicializar() {
+        if (segredo.isBlank()) {
+            throw new IllegalStateException("chat.gateway.segredo nao configurado");
+        }
+        chave = new SecretKeySpec(segredo.getBytes(StandardCharsets.UTF_8), ALGORITMO);
+    }
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                                 ServerCallHandler<ReqT, RespT> next) {
+        String usuarioId = headers.get(HEADER_USUARIO);
+        if (usuarioId == null || usuarioId.isBlank()) {
+            return next.startCall(call, headers);
+        }
+
+        if (!assinaturaValida(usuarioId, headers.get(HEADER_INSTANTE), headers.get(HEADER_ASSINATURA))) {
+            call.close(Status.UNAUTHENTICATED.withDescription("identidade do usuario nao assinada pelo gateway"), new Metadata());
+            return new ServerCall.Listener<>() {
+            };
+        }
+        return Contexts.interceptCall(Context.current().withValue(USUARIO_ID, usuarioId), call, headers, next);
+    }
+
+    /**
+     * Usuário da chamada atual (precisa ser chamado na thread da chamada gRPC).
+     */
+    public static Optional<String> usuarioAtual() {
+        return Optional.ofNullable(USUARIO_ID.get());
+    }
+
+    private boolean assinaturaValida(String usuarioId, String instante, String assinatura) {
+        if (instante == null || assinatura == null) {
+            return false;
+        }
+
+        long emitidaEm;
+        try {
+            emitidaEm = Long.parseLong(instante);
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        if (Math.abs(System.currentTimeMillis() / 1000 - emitidaEm) > validadeSegundos) {
+            return false;
+        }
+
+        byte[] esperada = assinar(usuarioId + "." + instante);
+        byte[] recebida;
+        try {
+            recebida = Base64.getUrlDecoder().decode(assinatura);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        // Comparação em tempo constante
+        return MessageDigest.isEqual(esperada, recebida);
+    }
+
+    private byte[] assinar(String conteudo) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITMO);
+            mac.init(chave);
+            return mac.doFinal(conteudo.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+            // HmacSHA256 existe em toda JVM e a chave já foi validada na inicialização
+            throw new IllegalStateException(e);
+        }
+    }
+}
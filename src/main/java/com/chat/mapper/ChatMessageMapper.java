@@ -0,0 +1,71 @@
+package com.chat.mapper;
+
+import java.time.Instant;
+
+import org.bson.types.ObjectId;
+
+import com.chat.model.ChatMessage;
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Timestamp;
+
+import br.com.meuprojeto.chat.v1.Content;
+import br.com.meuprojeto.chat.v1.Message;
+import br.com.meuprojeto.chat.v1.MessageStatus;
+import br.com.meuprojeto.chat.v1.SendTextMessageRequest;
+import br.com.meuprojeto.chat.v1.TextContent;
+
+/**
+ * Conversões entre as mensagens Protobuf da API e o modelo persistido no MongoDB.
+ */
+public final class ChatMessageMapper {
+
+    private ChatMessageMapper() {
+    }
+
+    /**
+     * O _id é gerado aqui (e não pelo driver) para que a mensagem já tenha seu id
+     * canônico antes do insert em lote, e para que ids de um mesmo lote sigam a
+     * ordem de chegada.
+     */
+    public static ChatMessage paraEntidade(SendTextMessageRequest request, String senderId, Instant timestamp) {
+        ChatMessage.Content content = new ChatMessage.Content(request.getTextBody());
+
+        ChatMessage mensagem = new ChatMessage(request.getClientMessageId(),
+                               request.getConversationId(),
+                               senderId,
+                               content,
+                               timestamp);
+        mensagem.setId(new ObjectId().toHexString());
+
+        if (request.hasReplyToMessageId()) {
+            mensagem.setReplyToMessageId(request.getReplyToMessageId().getValue());
+        }
+        return mensagem;
+    }
+
+    public static Message paraProto(ChatMessage mensagem) {
+        Message.Builder builder = Message.newBuilder()
+                .setId(mensagem.getId())
+                .setConversationId(mensagem.getConversationId())
+                .setSenderId(mensagem.getSenderId())
+                .setSentAt(paraTimestamp(mensagem.getTimestamp()))
+                .setStatus(MessageStatus.SENT)
+                .setSeq(mensagem.getSeq());
+
+        if (mensagem.getContent() != null && mensagem.getContent().getText() != null) {
+            builder.setContent(Content.newBuilder()
+                    .setText(TextContent.newBuilder().setBody(mensagem.getContent().getText())));
+        }
+        if (mensagem.getReplyToMessageId() != null) {
+            builder.setReplyToMessageId(StringValue.of(mensagem.getReplyToMessageId()));
+        }
+        return builder.build();
+    }
+
+    public static Timestamp paraTimestamp(Instant instante) {
+        return Timestamp.newBuilder()
+                .setSeconds(instante.getEpochSecond())
+                .setNanos(instante.getNano())
+                .build();
+    }
+}
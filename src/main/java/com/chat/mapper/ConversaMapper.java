@@ -0,0 +1,53 @@
+package com.chat.mapper;
+
+import com.chat.model.ResumoConversa;
+import com.google.protobuf.StringValue;
+
+import br.com.meuprojeto.chat.v1.Content;
+import br.com.meuprojeto.chat.v1.ConversationInfo;
+import br.com.meuprojeto.chat.v1.Message;
+import br.com.meuprojeto.chat.v1.MessageStatus;
+import br.com.meuprojeto.chat.v1.TextContent;
+
+/**
+ * Conversões dos resumos de conversa (conversation_summaries) para a API.
+ */
+public final class ConversaMapper {
+
+    private ConversaMapper() {
+    }
+
+    public static ConversationInfo paraProto(ResumoConversa resumo) {
+        ConversationInfo.Builder builder = ConversationInfo.newBuilder()
+                .setId(resumo.getConversationId())
+                .setUnreadCount(resumo.getUnreadCount());
+
+        if (resumo.getName() != null) {
+            builder.setName(resumo.getName());
+        }
+        if (resumo.getAvatarUrl() != null) {
+            builder.setAvatarUrl(resumo.getAvatarUrl());
+        }
+        if (resumo.getLastMessage() != null) {
+            builder.setLastMessagePreview(paraProto(resumo.getConversationId(), resumo.getLastMessage()));
+        }
+        return builder.build();
+    }
+
+    private static Message paraProto(String conversationId, ResumoConversa.UltimaMensagem ultima) {
+        Message.Builder builder = Message.newBuilder()
+                .setId(ultima.getMessageId())
+                .setConversationId(conversationId)
+                .setSenderId(ultima.getSenderId())
+                .setSentAt(ChatMessageMapper.paraTimestamp(ultima.getSentAt()))
+                .setStatus(MessageStatus.SENT);
+
+        if (ultima.getText() != null) {
+            builder.setContent(Content.newBuilder().setText(TextContent.newBuilder().setBody(ultima.getText())));
+        }
+        if (ultima.getReplyToMessageId() != null) {
+            builder.setReplyToMessageId(StringValue.of(ultima.getReplyToMessageId()));
+        }
+        return builder.build();
+    }
+}
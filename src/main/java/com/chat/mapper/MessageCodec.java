@@ -0,0 +1,134 @@
+package com.chat.mapper;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.google.protobuf.StringValue;
+import com.google.protobuf.Timestamp;
+import com.mongodb.client.model.Projections;
+
+import br.com.meuprojeto.chat.v1.Content;
+import br.com.meuprojeto.chat.v1.Message;
+import br.com.meuprojeto.chat.v1.MessageStatus;
+import br.com.meuprojeto.chat.v1.TextContent;
+
+/**
+ * Lê documentos de "chat_messages" direto para o Message do Protobuf, sem
+ * passar pelo ChatMessage: o driver entrega os campos em sequência e eles vão
+ * direto para o builder, sem objeto intermediário nem mapeamento por reflexão.
+ *
+ * Só leitura: a gravação continua sendo feita pelo ChatMessage (Worker).
+ * Usar com a PROJECAO, para o MongoDB nem enviar os campos que a API não usa.
+ */
+public final class MessageCodec implements Codec<Message> {
+
+    // Nomes dos campos como gravados pelo ChatMessage
+    public static final String CAMPO_ID = "_id";
+    public static final String CAMPO_CONVERSA = "conversation_id";
+    public static final String CAMPO_REMETENTE = "sender_id";
+    public static final String CAMPO_TIMESTAMP = "timestamp";
+    public static final String CAMPO_SEQ = "seq";
+    public static final String CAMPO_CONTEUDO = "content";
+    public static final String CAMPO_TEXTO = "text";
+    public static final String CAMPO_RESPOSTA_A = "reply_to_message_id";
+
+    public static final Bson PROJECAO = Projections.include(
+        CAMPO_CONVERSA, CAMPO_REMETENTE, CAMPO_TIMESTAMP, CAMPO_SEQ,
+        CAMPO_CONTEUDO + "." + CAMPO_TEXTO, CAMPO_RESPOSTA_A);
+
+
+    /**
+     * Registro de codecs da coleção acrescido deste codec.
+     */
+    public static CodecRegistry registrarEm(CodecRegistry base) {
+        return CodecRegistries.fromRegistries(CodecRegistries.fromCodecs(new MessageCodec()), base);
+    }
+
+    @Override
+    public Message decode(BsonReader reader, DecoderContext decoderContext) {
+        Message.Builder builder = Message.newBuilder().setStatus(MessageStatus.SENT);
+
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String campo = reader.readName();
+
+            if (reader.getCurrentBsonType() == BsonType.NULL) {
+                reader.readNull();
+                continue;
+            }
+
+            switch (campo) {
+                case CAMPO_ID -> builder.setId(reader.getCurrentBsonType() == BsonType.OBJECT_ID
+                        ? reader.readObjectId().toHexString()
+                        : reader.readString());
+                case CAMPO_CONVERSA -> builder.setConversationId(reader.readString());
+                case CAMPO_REMETENTE -> builder.setSenderId(reader.readString());
+                case CAMPO_TIMESTAMP -> builder.setSentAt(paraTimestamp(reader.readDateTime()));
+                case CAMPO_SEQ -> builder.setSeq(lerInteiro(reader));
+                case CAMPO_CONTEUDO -> lerConteudo(reader, builder);
+                case CAMPO_RESPOSTA_A -> builder.setReplyToMessageId(StringValue.of(reader.readString()));
+                default -> reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+
+        return builder.build();
+    }
+
+    private static void lerConteudo(BsonReader reader, Message.Builder builder) {
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            String campo = reader.readName();
+
+            if (CAMPO_TEXTO.equals(campo) && reader.getCurrentBsonType() == BsonType.STRING) {
+                builder.setContent(Content.newBuilder().setText(TextContent.newBuilder().setBody(reader.readString())));
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.readEndDocument();
+    }
+
+    // Documentos antigos (ou gravados por outra ferramenta) podem ter o número como int32
+    private static long lerInteiro(BsonReader reader) {
+        return switch (reader.getCurrentBsonType()) {
+            case INT32 -> reader.readInt32();
+            case INT64 -> reader.readInt64();
+            case DOUBLE -> (long) reader.readDouble();
+            default -> {
+                reader.skipValue();
+                yield 0L;
+            }
+        };
+    }
+
+    private static Timestamp paraTimestamp(long epochMillis) {
+        return Timestamp.newBuilder()
+                .setSeconds(Math.floorDiv(epochMillis, 1000L))
+                .setNanos((int) Math.floorMod(epochMillis, 1000L) * 1_000_000)
+                .build();
+    }
+
+    /**
+     * Só leitura, de propósito: o Message não tem o client_msg_id, e um
+     * documento gravado sem ele entraria como null no índice único
+     * uk_client_msg_id, colidindo com o próximo gravado assim. Grave pelo
+     * ChatMessage (Worker).
+     */
+    @Override
+    public void encode(BsonWriter writer, Message value, EncoderContext encoderContext) {
+        throw new UnsupportedOperationException("MessageCodec e somente leitura; grave pelo ChatMessage");
+    }
+
+    @Override
+    public Class<Message> getEncoderClass() {
+        return Message.class;
+    }
+}
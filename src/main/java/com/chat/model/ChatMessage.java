@@ -3,17 +3,25 @@ package com.chat.model;
 import java.time.Instant;
 
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
 import br.com.meuprojeto.chat.v1.Content;
 
 @Document(collection = "chat_messages")
+// Índice do histórico: paginação por chave (keyset) em (conversation_id, timestamp, _id)
+@CompoundIndex(name = "ix_conversa_timestamp_id", def = "{'conversation_id': 1, 'timestamp': 1, '_id': 1}")
+// Faixas de seq de uma conversa (remetentes de um trecho lido, ver MarkConversationRead)
+@CompoundIndex(name = "ix_conversa_seq", def = "{'conversation_id': 1, 'seq': 1}")
 public class ChatMessage {
 
     @Id
     private String id;
 
+    // Índice único: é ele que garante a idempotência no Worker (insert-or-ignore)
+    @Indexed(name = "uk_client_msg_id", unique = true)
     @Field("client_msg_id")
     private String clientMessageId;
 
@@ -26,12 +34,19 @@ public class ChatMessage {
     @Field("timestamp")
     private Instant timestamp;
 
+    // Sequência da mensagem dentro da conversa (ver SequenciadorConversas)
+    @Field("seq")
+    private long seq;
+
     private Content content;
 
+    @Field("reply_to_message_id")
+    private String replyToMessageId;
+
     public ChatMessage() {
     }
 
-    // Construtor auxiliar (vamos criar um Mapper para isso depois)
+    // Construtor auxiliar (usado pelo ChatMessageMapper)
     public ChatMessage(String clientMessageId, String conversationId, String senderId, Content content, Instant timestamp) {
         this.clientMessageId = clientMessageId;
         this.conversationId = conversationId;
@@ -45,6 +60,9 @@ public class ChatMessage {
 
         //TODO: Adicionar campos de midia (mediaUrl, mimeType, etc)
 
+        public Content() {
+        }
+
         public Content(String text){
             this.text = text;
         }
@@ -65,7 +83,11 @@ public class ChatMessage {
     public void setSenderId(String senderId) { this.senderId = senderId; }
     public Instant getTimestamp() { return timestamp; }
     public void setTimestamp(Instant timestamp) { this.timestamp = timestamp; }
+    public long getSeq() { return seq; }
+    public void setSeq(long seq) { this.seq = seq; }
     public Content getContent() { return content; }
     public void setContent(Content content) { this.content = content; }
+    public String getReplyToMessageId() { return replyToMessageId; }
+    public void setReplyToMessageId(String replyToMessageId) { this.replyToMessageId = replyToMessageId; }
 
 }
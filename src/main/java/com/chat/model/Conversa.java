@@ -0,0 +1,44 @@
+package com.chat.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Uma conversa (1-para-1 ou grupo) e seus participantes.
+ */
+@Document(collection = "conversations")
+public class Conversa {
+
+    @Id
+    private String id;
+
+    private String name;
+
+    @Field("avatar_url")
+    private String avatarUrl;
+
+    @Field("member_ids")
+    private List<String> memberIds = new ArrayList<>();
+
+    public Conversa() {
+    }
+
+    public Conversa(String id, List<String> memberIds) {
+        this.id = id;
+        this.memberIds = memberIds;
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public String getAvatarUrl() { return avatarUrl; }
+    public void setAvatarUrl(String avatarUrl) { this.avatarUrl = avatarUrl; }
+    public List<String> getMemberIds() { return memberIds; }
+    public void setMemberIds(List<String> memberIds) { this.memberIds = memberIds; }
+
+}
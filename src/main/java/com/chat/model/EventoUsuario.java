@@ -0,0 +1,60 @@
+package com.chat.model;
+
+import java.time.Instant;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Um ServerEvent já endereçado a um usuário, guardado por algum tempo para o
+ * SubscribeToEvents poder reenviar o que o cliente perdeu (last_event_id).
+ * Os documentos expiram sozinhos (índice TTL em created_at).
+ *
+ * O _id é "<user_id>:<seq>".
+ */
+@Document(collection = "user_events")
+@CompoundIndex(name = "uk_usuario_seq", def = "{'user_id': 1, 'seq': 1}", unique = true)
+public class EventoUsuario {
+
+    @Id
+    private String id;
+
+    @Field("user_id")
+    private String userId;
+
+    // Sequência do evento para o usuário: é o event_id enviado ao cliente
+    private long seq;
+
+    @Indexed(name = "ttl_created_at", expireAfter = "1d")
+    @Field("created_at")
+    private Instant createdAt;
+
+    // ServerEvent serializado (Protobuf)
+    private byte[] payload;
+
+    public EventoUsuario() {
+    }
+
+    public EventoUsuario(String userId, long seq, Instant createdAt, byte[] payload) {
+        this.id = userId + ":" + seq;
+        this.userId = userId;
+        this.seq = seq;
+        this.createdAt = createdAt;
+        this.payload = payload;
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+    public long getSeq() { return seq; }
+    public void setSeq(long seq) { this.seq = seq; }
+    public Instant getCreatedAt() { return createdAt; }
+    public void setCreatedAt(Instant createdAt) { this.createdAt = createdAt; }
+    public byte[] getPayload() { return payload; }
+    public void setPayload(byte[] payload) { this.payload = payload; }
+
+}
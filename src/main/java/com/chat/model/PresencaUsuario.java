@@ -0,0 +1,33 @@
+package com.chat.model;
+
+import java.time.Instant;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Última vez em que o usuário foi visto online (PresenceUpdate.last_seen_at).
+ * O _id é o id do usuário. Gravado em lote pelo RegistroUltimaVez.
+ *
+ * O mesmo documento guarda a presença global ("nos", "online", "versao"),
+ * mantida só pela PresencaGlobal e por isso não mapeada aqui.
+ */
+@Document(collection = "user_presence")
+public class PresencaUsuario {
+
+    @Id
+    private String id;
+
+    @Field("last_seen_at")
+    private Instant lastSeenAt;
+
+    public PresencaUsuario() {
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public Instant getLastSeenAt() { return lastSeenAt; }
+    public void setLastSeenAt(Instant lastSeenAt) { this.lastSeenAt = lastSeenAt; }
+
+}
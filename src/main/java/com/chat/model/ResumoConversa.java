@@ -0,0 +1,114 @@
+package com.chat.model;
+
+import java.time.Instant;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * Resumo materializado de uma conversa do ponto de vista de um usuário: o que
+ * a lista de chats (GetConversations) mostra. Mantido pelo Worker a cada lote
+ * gravado, para a leitura ser uma única consulta por faixa no índice.
+ *
+ * Os não lidos não são guardados como contador: saem de last_seq (última seq
+ * da conversa) - read_seq (última seq que o usuário leu).
+ *
+ * O _id é "<user_id>:<conversation_id>".
+ */
+@Document(collection = "conversation_summaries")
+@CompoundIndex(name = "ix_usuario_atividade", def = "{'user_id': 1, 'last_activity': -1, 'conversation_id': -1}")
+public class ResumoConversa {
+
+    @Id
+    private String id;
+
+    @Field("user_id")
+    private String userId;
+
+    @Field("conversation_id")
+    private String conversationId;
+
+    private String name;
+
+    @Field("avatar_url")
+    private String avatarUrl;
+
+    @Field("last_message")
+    private UltimaMensagem lastMessage;
+
+    @Field("last_activity")
+    private Instant lastActivity;
+
+    @Field("last_seq")
+    private long lastSeq;
+
+    @Field("read_seq")
+    private long readSeq;
+
+    public ResumoConversa() {
+    }
+
+    public static String idDe(String userId, String conversationId) {
+        return userId + ":" + conversationId;
+    }
+
+    /**
+     * Prévia da última mensagem da conversa.
+     */
+    public static class UltimaMensagem {
+
+        @Field("message_id")
+        private String messageId;
+
+        @Field("sender_id")
+        private String senderId;
+
+        private String text;
+
+        @Field("sent_at")
+        private Instant sentAt;
+
+        @Field("reply_to_message_id")
+        private String replyToMessageId;
+
+        public UltimaMensagem() {
+        }
+
+        public String getMessageId() { return messageId; }
+        public void setMessageId(String messageId) { this.messageId = messageId; }
+        public String getSenderId() { return senderId; }
+        public void setSenderId(String senderId) { this.senderId = senderId; }
+        public String getText() { return text; }
+        public void setText(String text) { this.text = text; }
+        public Instant getSentAt() { return sentAt; }
+        public void setSentAt(Instant sentAt) { this.sentAt = sentAt; }
+        public String getReplyToMessageId() { return replyToMessageId; }
+        public void setReplyToMessageId(String replyToMessageId) { this.replyToMessageId = replyToMessageId; }
+    }
+
+    public String getId() { return id; }
+    public void setId(String id) { this.id = id; }
+    public String getUserId() { return userId; }
+    public void setUserId(String userId) { this.userId = userId; }
+    public String getConversationId() { return conversationId; }
+    public void setConversationId(String conversationId) { this.conversationId = conversationId; }
+    public String getName() { return name; }
+    public void setName(String name) { this.name = name; }
+    public String getAvatarUrl() { return avatarUrl; }
+    public void setAvatarUrl(String avatarUrl) { this.avatarUrl = avatarUrl; }
+    public UltimaMensagem getLastMessage() { return lastMessage; }
+    public void setLastMessage(UltimaMensagem lastMessage) { this.lastMessage = lastMessage; }
+    public Instant getLastActivity() { return lastActivity; }
+    public void setLastActivity(Instant lastActivity) { this.lastActivity = lastActivity; }
+    public long getLastSeq() { return lastSeq; }
+    public void setLastSeq(long lastSeq) { this.lastSeq = lastSeq; }
+    public long getReadSeq() { return readSeq; }
+    public void setReadSeq(long readSeq) { this.readSeq = readSeq; }
+
+    public int getUnreadCount() {
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, lastSeq - readSeq));
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.chat.presenca;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Quem quer receber a presença de quem (WatchPresence), registrado no nó que
+ * recebeu o pedido.
+ *
+ * Cada observador tem um único conjunto de observados, trocado inteiro a cada
+ * pedido (ex: os contatos na tela), e o índice inverso observado ->
+ * observadores é ajustado só pela diferença. O interesse expira em
+ * "chat.presenca.interesse-ttl-s" se não for renovado, então um cliente que
+ * some não deixa lixo.
+ *
+ * Quando um usuário ganha o primeiro observador neste nó (ou perde o último),
+ * os ouvintes são avisados; o RoteadorEventos usa isso para ligar a fila do nó
+ * à presença dele.
+ */
+@Component
+public class InteressesPresenca {
+
+    public static final String METRICA_OBSERVADOS = "chat.presenca.observados";
+
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.presenca.interesse-ttl-s:300}")
+    private int ttlSegundos;
+
+    @Value("${chat.presenca.observados-max:500}")
+    private int observadosMax;
+
+    private final Map<String, Interesse> porObservador = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> porObservado = new ConcurrentHashMap<>();
+
+    private final List<Consumer<String>> ouvintes = new CopyOnWriteArrayList<>();
+
+
+    @PostConstruct
+    void registrarMetricas() {
+        Gauge.builder(METRICA_OBSERVADOS, porObservado, Map::size).register(meterRegistry);
+    }
+
+    /**
+     * Avisado com o id do observado quando ele passa a ter (ou deixa de ter)
+     * observadores neste nó.
+     */
+    public void observarObservados(Consumer<String> ouvinte) {
+        ouvintes.add(ouvinte);
+    }
+
+    public int ttlSegundos() {
+        return ttlSegundos;
+    }
+
+    public int observadosMax() {
+        return observadosMax;
+    }
+
+    /**
+     * Troca o conjunto de usuários observados por "observador".
+     */
+    public void definir(String observador, Collection<String> observados) {
+        Set<String> novos = new HashSet<>(observados);
+        novos.remove(observador);
+        long expiraEm = novos.isEmpty() ? 0 : System.currentTimeMillis() + ttlSegundos * 1000L;
+
+        // O compute serializa pedidos do mesmo observador; a diferença é aplicada dentro dele
+        porObservador.compute(observador, (o, atual) -> {
+            Set<String> anteriores = atual == null ? Set.of() : atual.observados;
+            for (String observado : anteriores) {
+                if (!novos.contains(observado)) {
+                    desligar(observado, observador);
+                }
+            }
+            for (String observado : novos) {
+                if (!anteriores.contains(observado)) {
+                    ligar(observado, observador);
+                }
+            }
+            return novos.isEmpty() ? null : new Interesse(Set.copyOf(novos), expiraEm);
+        });
+    }
+
+    /**
+     * Observadores de "observado" registrados neste nó.
+     */
+    public Set<String> observadores(String observado) {
+        Set<String> observadores = porObservado.get(observado);
+        return observadores == null ? Set.of() : observadores;
+    }
+
+    public boolean temObservadores(String observado) {
+        return porObservado.containsKey(observado);
+    }
+
+    /**
+     * Usuários com pelo menos um observador neste nó.
+     */
+    public Set<String> observados() {
+        return Set.copyOf(porObservado.keySet());
+    }
+
+    @Scheduled(fixedDelayString = "${chat.presenca.interesse-limpeza-ms:30000}")
+    public void expirar() {
+        long agora = System.currentTimeMillis();
+        for (Map.Entry<String, Interesse> entrada : porObservador.entrySet()) {
+            if (entrada.getValue().expiraEm <= agora) {
+                porObservador.computeIfPresent(entrada.getKey(), (o, atual) -> {
+                    // Pode ter sido renovado depois da leitura acima
+                    if (atual.expiraEm > agora) {
+                        return atual;
+                    }
+                    atual.observados.forEach(observado -> desligar(observado, o));
+                    return null;
+                });
+            }
+        }
+    }
+
+    private void ligar(String observado, String observador) {
+        boolean[] primeiro = new boolean[1];
+        porObservado.compute(observado, (u, atuais) -> {
+            primeiro[0] = atuais == null;
+            Set<String> observadores = atuais == null ? ConcurrentHashMap.newKeySet() : atuais;
+            observadores.add(observador);
+            return observadores;
+        });
+        if (primeiro[0]) {
+            avisar(observado);
+        }
+    }
+
+    private void desligar(String observado, String observador) {
+        boolean[] ultimo = new boolean[1];
+        porObservado.computeIfPresent(observado, (u, atuais) -> {
+            atuais.remove(observador);
+            ultimo[0] = atuais.isEmpty();
+            return ultimo[0] ? null : atuais;
+        });
+        if (ultimo[0]) {
+            avisar(observado);
+        }
+    }
+
+    private void avisar(String observado) {
+        for (Consumer<String> ouvinte : ouvintes) {
+            ouvinte.accept(observado);
+        }
+    }
+
+
+    private record Interesse(Set<String> observados, long expiraEm) {
+    }
+}
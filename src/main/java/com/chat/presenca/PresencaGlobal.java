@@ -0,0 +1,215 @@
+package com.chat.presenca;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Presença do usuário somando todos os nós, no documento dele em
+ * "user_presence".
+ *
+ * Heartbeats e streams do mesmo usuário podem cair em nós diferentes
+ * (balanceamento), então o que um nó vê não é a presença do usuário. Cada nó
+ * onde ele está online mantém uma entrada "nos.<no>" = {t: token, ate: prazo},
+ * renovada em lote a cada "chat.presenca.gravacao-ms"; entrada vencida (nó que
+ * caiu) não conta. O token identifica a passagem do usuário pelo nó, para uma
+ * saída atrasada não apagar a entrada de uma volta mais recente.
+ *
+ * "online" no documento é a presença já publicada, e cada transição é decidida
+ * no próprio documento, então só um nó publica cada uma:
+ * - entrar: grava a entrada e liga "online"; publica quem o encontrou desligado;
+ * - sair: apaga a entrada; se nenhuma outra vale, desliga "online" só se a
+ *   "versao" não mudou desde a leitura, e publica quem conseguiu.
+ * Se outra entrada ainda vale, o nó confere de novo quando ela vencer
+ * (conferir), para um nó que caiu não deixar o usuário online para sempre.
+ *
+ * Tudo pelo driver reativo: nada disso bloqueia as threads do gRPC nem o
+ * agendador.
+ */
+@Component
+public class PresencaGlobal {
+
+    private static final Logger log = LoggerFactory.getLogger(PresencaGlobal.class);
+
+    static final String COLECAO = "user_presence";
+
+    // Resultados de sair/conferir (um valor positivo é quando conferir de novo)
+    static final long FICOU_OFFLINE = -1;
+    static final long NADA_MUDOU = 0;
+
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    // Identifica este nó nas entradas; muda a cada início, então as de uma execução anterior só vencem
+    private final String no = UUID.randomUUID().toString();
+
+    // userId -> renovação ainda não gravada
+    private final Map<String, Renovacao> renovacoes = new ConcurrentHashMap<>();
+
+
+    /**
+     * Usuário ficou online neste nó. Devolve se é preciso publicar "online"
+     * (ninguém tinha publicado ainda).
+     */
+    Mono<Boolean> entrar(String userId, long token, long prazo) {
+        Update update = new Update()
+                .set(campoNo(), new Document("t", token).append("ate", prazo))
+                .set("online", true)
+                .inc("versao", 1L);
+
+        return reactiveMongoTemplate.findAndModify(porId(userId), update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(false), Document.class, COLECAO)
+                .map(anterior -> !Boolean.TRUE.equals(anterior.get("online")))
+                // Documento novo: nunca esteve online
+                .defaultIfEmpty(true);
+    }
+
+    /**
+     * Estende o prazo da entrada deste nó (vai na próxima gravação em lote).
+     */
+    void renovar(String userId, long token, long prazo) {
+        renovacoes.merge(userId, new Renovacao(token, prazo), (atual, nova) -> nova.prazo() >= atual.prazo() ? nova : atual);
+    }
+
+    /**
+     * Usuário ficou offline neste nó. Devolve FICOU_OFFLINE se é preciso
+     * publicar, NADA_MUDOU, ou o prazo em que outra entrada vence (conferir
+     * nessa hora).
+     */
+    Mono<Long> sair(String userId, long token) {
+        renovacoes.computeIfPresent(userId, (u, renovacao) -> renovacao.token() == token ? null : renovacao);
+
+        Query query = Query.query(Criteria.where("_id").is(userId).and(campoNo() + ".t").is(token));
+        return reactiveMongoTemplate.findAndModify(query, new Update().unset(campoNo()).inc("versao", 1L),
+                    FindAndModifyOptions.options().returnNew(true), Document.class, COLECAO)
+                .flatMap(documento -> desligarSeNinguem(userId, documento))
+                // A entrada já não era desta passagem (o usuário voltou a este nó)
+                .defaultIfEmpty(NADA_MUDOU);
+    }
+
+    /**
+     * Confere de novo um usuário que outro nó mantinha online.
+     */
+    Mono<Long> conferir(String userId) {
+        return reactiveMongoTemplate.findOne(porId(userId), Document.class, COLECAO)
+                .flatMap(documento -> desligarSeNinguem(userId, documento))
+                .defaultIfEmpty(NADA_MUDOU);
+    }
+
+    /**
+     * Dos usuários, os que estão online em algum nó.
+     */
+    Mono<Set<String>> online(Collection<String> userIds) {
+        long agora = System.currentTimeMillis();
+        Query query = Query.query(Criteria.where("_id").in(userIds));
+        query.fields().include("nos");
+
+        return reactiveMongoTemplate.find(query, Document.class, COLECAO)
+                .filter(documento -> maiorPrazo(documento, agora) > 0)
+                .map(documento -> documento.getString("_id"))
+                .collect(HashSet::new, Set::add);
+    }
+
+    @Scheduled(fixedDelayString = "${chat.presenca.gravacao-ms:30000}")
+    public void gravarRenovacoes() {
+        if (renovacoes.isEmpty()) {
+            return;
+        }
+
+        Map<String, Renovacao> lote = new HashMap<>();
+        for (Map.Entry<String, Renovacao> entrada : renovacoes.entrySet()) {
+            if (renovacoes.remove(entrada.getKey(), entrada.getValue())) {
+                lote.put(entrada.getKey(), entrada.getValue());
+            }
+        }
+
+        // Sem upsert e filtrando pelo token: não recria a entrada de quem já saiu
+        List<WriteModel<Document>> operacoes = new ArrayList<>(lote.size());
+        for (Map.Entry<String, Renovacao> entrada : lote.entrySet()) {
+            operacoes.add(new UpdateOneModel<>(
+                Filters.and(Filters.eq("_id", entrada.getKey()), Filters.eq(campoNo() + ".t", entrada.getValue().token())),
+                Updates.max(campoNo() + ".ate", entrada.getValue().prazo())));
+        }
+
+        reactiveMongoTemplate.getCollection(COLECAO)
+                .flatMap(colecao -> Mono.from(colecao.bulkWrite(operacoes, new BulkWriteOptions().ordered(false))))
+                .subscribe(
+                    resultado -> { },
+                    erro -> {
+                        // Voltam para a próxima gravação
+                        lote.forEach((userId, renovacao) -> renovar(userId, renovacao.token(), renovacao.prazo()));
+                        log.error("[PRESENCA] Falha ao renovar a presenca de {} usuarios: {}", operacoes.size(), erro.getMessage());
+                    });
+    }
+
+    private Mono<Long> desligarSeNinguem(String userId, Document documento) {
+        long prazo = maiorPrazo(documento, System.currentTimeMillis());
+        if (prazo > 0) {
+            return Mono.just(prazo);
+        }
+        if (!Boolean.TRUE.equals(documento.get("online"))) {
+            return Mono.just(NADA_MUDOU);
+        }
+
+        // Se a versão mudou, outro nó entrou ou saiu depois da leitura e decide ele
+        Query query = Query.query(Criteria.where("_id").is(userId)
+                .and("online").is(true)
+                .and("versao").is(documento.get("versao")));
+        return reactiveMongoTemplate.updateFirst(query, new Update().set("online", false).inc("versao", 1L), COLECAO)
+                .map(resultado -> resultado.getModifiedCount() == 1 ? FICOU_OFFLINE : NADA_MUDOU);
+    }
+
+    // Maior prazo entre as entradas que ainda valem, ou 0 se nenhuma vale
+    private static long maiorPrazo(Document documento, long agora) {
+        Document nos = documento.get("nos", Document.class);
+        if (nos == null) {
+            return 0;
+        }
+        long maior = 0;
+        for (Object valor : nos.values()) {
+            if (valor instanceof Document entrada && entrada.get("ate") instanceof Number ate && ate.longValue() > agora) {
+                maior = Math.max(maior, ate.longValue());
+            }
+        }
+        return maior;
+    }
+
+    private String campoNo() {
+        return "nos." + no;
+    }
+
+    private static Query porId(String userId) {
+        return Query.query(Criteria.where("_id").is(userId));
+    }
+
+
+    private record Renovacao(long token, long prazo) {
+    }
+}
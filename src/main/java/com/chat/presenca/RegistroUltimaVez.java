@@ -0,0 +1,136 @@
+package com.chat.presenca;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.chat.model.PresencaUsuario;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import reactor.core.publisher.Mono;
+
+/**
+ * Grava o last_seen_at dos usuários ("user_presence") em lote.
+ *
+ * Cada heartbeat (e cada mudança de presença) só atualiza o valor em memória;
+ * a cada "chat.presenca.gravacao-ms" o mais recente de cada usuário vai num
+ * único bulkWrite. Com $max, gravar fora de ordem ou repetido não volta o
+ * horário. Se o nó cair, perde-se no máximo um intervalo, o que para um
+ * "visto por último" é aceitável.
+ */
+@Component
+public class RegistroUltimaVez {
+
+    private static final Logger log = LoggerFactory.getLogger(RegistroUltimaVez.class);
+
+    public static final String METRICA_FALHAS = "chat.presenca.gravacao.falhas";
+
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // userId -> epoch millis ainda não gravado
+    private final Map<String, Long> pendentes = new ConcurrentHashMap<>();
+
+    private Counter falhas;
+
+
+    @PostConstruct
+    void registrarMetricas() {
+        falhas = meterRegistry.counter(METRICA_FALHAS);
+    }
+
+    public void marcar(String userId, long epochMillis) {
+        pendentes.merge(userId, epochMillis, Math::max);
+    }
+
+    /**
+     * last_seen_at gravado de cada usuário, já considerando o que ainda está
+     * pendente neste nó. Usuários nunca vistos não aparecem no mapa.
+     */
+    public Mono<Map<String, Instant>> buscar(Collection<String> userIds) {
+        Query query = Query.query(Criteria.where("_id").in(userIds));
+        return reactiveMongoTemplate.find(query, PresencaUsuario.class)
+                .filter(presenca -> presenca.getLastSeenAt() != null)
+                .collectMap(PresencaUsuario::getId, PresencaUsuario::getLastSeenAt)
+                .map(gravados -> {
+                    Map<String, Instant> resultado = new HashMap<>(gravados);
+                    for (String userId : userIds) {
+                        Long pendente = pendentes.get(userId);
+                        if (pendente != null) {
+                            resultado.merge(userId, Instant.ofEpochMilli(pendente), (a, b) -> a.isAfter(b) ? a : b);
+                        }
+                    }
+                    return resultado;
+                });
+    }
+
+    @Scheduled(fixedDelayString = "${chat.presenca.gravacao-ms:30000}")
+    public void descarregar() {
+        if (pendentes.isEmpty()) {
+            return;
+        }
+
+        Map<String, Long> lote = new HashMap<>();
+        for (Map.Entry<String, Long> entrada : pendentes.entrySet()) {
+            // Se mudou no meio do caminho, fica para a próxima
+            if (pendentes.remove(entrada.getKey(), entrada.getValue())) {
+                lote.put(entrada.getKey(), entrada.getValue());
+            }
+        }
+
+        List<WriteModel<Document>> operacoes = new ArrayList<>(lote.size());
+        for (Map.Entry<String, Long> entrada : lote.entrySet()) {
+            operacoes.add(new UpdateOneModel<>(
+                Filters.eq("_id", entrada.getKey()),
+                Updates.max("last_seen_at", new Date(entrada.getValue())),
+                new UpdateOptions().upsert(true)));
+        }
+
+        try {
+            mongoTemplate.getCollection(mongoTemplate.getCollectionName(PresencaUsuario.class))
+                    .bulkWrite(operacoes, new BulkWriteOptions().ordered(false));
+        } catch (Exception e) {
+            // Voltam para os pendentes e vão na próxima gravação
+            lote.forEach(this::marcar);
+            falhas.increment();
+            log.error("[PRESENCA] Falha ao gravar last_seen_at de {} usuarios: {}", operacoes.size(), e.getMessage());
+        }
+    }
+
+    @PreDestroy
+    void descarregarAoEncerrar() {
+        descarregar();
+    }
+}
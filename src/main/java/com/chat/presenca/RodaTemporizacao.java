@@ -0,0 +1,63 @@
+package com.chat.presenca;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Roda de temporização (hashed timing wheel): prazos agrupados em "slots" de
+ * um tick cada, num array circular. Agendar é só um add na lista do slot e
+ * cada tick processa um slot inteiro, então o custo não depende de quantos
+ * prazos existem, ao contrário de uma tarefa agendada por item.
+ *
+ * Não há cancelamento nem reagendamento: quem recebe o item vencido confere
+ * o prazo atual dele e, se ainda não venceu (foi estendido, ou passava de uma
+ * volta inteira da roda), agenda de novo. Um item agendado junto com o tick
+ * do seu slot pode esperar uma volta a mais; por isso o prazo é sempre
+ * conferido por quem o recebe.
+ */
+final class RodaTemporizacao<T> {
+
+    private final long tickMs;
+    private final List<T>[] slots;
+
+    // Último tick processado. Só avança pela thread de avancar().
+    private volatile long ultimoTick;
+
+
+    @SuppressWarnings("unchecked")
+    RodaTemporizacao(int numeroSlots, long tickMs, long agoraMs) {
+        this.tickMs = tickMs;
+        this.slots = new List[numeroSlots];
+        for (int i = 0; i < numeroSlots; i++) {
+            slots[i] = new ArrayList<>();
+        }
+        this.ultimoTick = agoraMs / tickMs;
+    }
+
+    void agendar(T item, long prazoMs) {
+        long tick = Math.max(prazoMs / tickMs + 1, ultimoTick + 1);
+        List<T> slot = slots[(int) (tick % slots.length)];
+        synchronized (slot) {
+            slot.add(item);
+        }
+    }
+
+    /**
+     * Processa os slots até "agoraMs", entregando cada item a "vencidos".
+     */
+    void avancar(long agoraMs, Consumer<T> vencidos) {
+        long alvo = agoraMs / tickMs;
+        while (ultimoTick < alvo) {
+            long tick = ultimoTick + 1;
+            List<T> slot = slots[(int) (tick % slots.length)];
+            List<T> itens;
+            synchronized (slot) {
+                itens = new ArrayList<>(slot);
+                slot.clear();
+            }
+            ultimoTick = tick;
+            itens.forEach(vencidos);
+        }
+    }
+}
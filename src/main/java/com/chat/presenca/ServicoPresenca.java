@@ -0,0 +1,327 @@
+package com.chat.presenca;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.chat.eventos.HubEventos;
+import com.chat.eventos.NotificadorPresenca;
+
+import br.com.meuprojeto.chat.v1.PresenceUpdate;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import reactor.core.publisher.Mono;
+
+/**
+ * Quem está online neste nó, e a partir disso a presença global do usuário.
+ *
+ * O usuário fica online enquanto tem stream do SubscribeToEvents aberto
+ * (avisado pelo HubEventos) ou enquanto manda Heartbeat. Sem nenhum dos dois
+ * por "chat.presenca.tolerancia-s" ele passa a offline; a tolerância também
+ * evita piscar offline/online quando o app só está reconectando o stream.
+ *
+ * A tabela é dividida em "chat.presenca.shards" partes, cada uma com seu
+ * lock, para heartbeats de usuários diferentes não disputarem o mesmo lock.
+ * Só usuários online ficam nela. Os prazos ficam numa RodaTemporizacao com
+ * um único agendamento por usuário, conferido a cada tick: heartbeat só
+ * estende o prazo em memória, sem mexer em tarefa agendada nenhuma.
+ *
+ * O mesmo usuário pode estar online em vários nós ao mesmo tempo (heartbeats
+ * balanceados, um stream por dispositivo), então uma transição deste nó não é
+ * a do usuário: ela passa pela PresencaGlobal, que decide se o usuário
+ * realmente mudou, e só então vai para o NotificadorPresenca. O last_seen_at
+ * vai para o RegistroUltimaVez (gravação em lote).
+ */
+@Component
+public class ServicoPresenca implements HubEventos.OuvinteUsuarios {
+
+    private static final Logger log = LoggerFactory.getLogger(ServicoPresenca.class);
+
+    public static final String METRICA_ONLINE = "chat.presenca.online";
+
+
+    @Autowired
+    private HubEventos hubEventos;
+
+    @Autowired
+    private RegistroUltimaVez registroUltimaVez;
+
+    @Autowired
+    private NotificadorPresenca notificadorPresenca;
+
+    @Autowired
+    private PresencaGlobal presencaGlobal;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.presenca.heartbeat-s:30}")
+    private int intervaloHeartbeatSegundos;
+
+    @Value("${chat.presenca.tolerancia-s:75}")
+    private int toleranciaSegundos;
+
+    @Value("${chat.presenca.gravacao-ms:30000}")
+    private long intervaloGravacaoMs;
+
+    @Value("${chat.presenca.shards:64}")
+    private int numeroShards;
+
+    @Value("${chat.presenca.tick-ms:1000}")
+    private long tickMs;
+
+    @Value("${chat.presenca.slots:512}")
+    private int numeroSlots;
+
+    private Shard[] shards;
+    private RodaTemporizacao<String> roda;
+
+    // Identifica cada passagem de um usuário por este nó (ver PresencaGlobal)
+    private final AtomicLong tokens = new AtomicLong();
+
+    // Usuários que outro nó mantinha online quando saíram daqui -> quando conferir de novo
+    private final Map<String, Long> conferencias = new ConcurrentHashMap<>();
+
+
+    @PostConstruct
+    void inicializar() {
+        shards = new Shard[numeroShards];
+        for (int i = 0; i < numeroShards; i++) {
+            shards[i] = new Shard();
+        }
+        roda = new RodaTemporizacao<>(numeroSlots, tickMs, System.currentTimeMillis());
+
+        Gauge.builder(METRICA_ONLINE, this, ServicoPresenca::totalOnline).register(meterRegistry);
+        hubEventos.observarUsuarios(this);
+    }
+
+    /**
+     * Heartbeat do cliente. Devolve em quantos segundos mandar o próximo.
+     */
+    public int heartbeat(String userId) {
+        tocar(userId, null);
+        return intervaloHeartbeatSegundos;
+    }
+
+    /**
+     * Stream aberto ou fechado: o estado atual vem do próprio HubEventos.
+     */
+    @Override
+    public void usuarioAlterado(String userId) {
+        tocar(userId, hubEventos.temAssinatura(userId));
+    }
+
+    public boolean online(String userId) {
+        Shard shard = shardDe(userId);
+        synchronized (shard) {
+            return shard.usuarios.containsKey(userId);
+        }
+    }
+
+    /**
+     * Última atividade conhecida neste nó, se o usuário está online aqui.
+     */
+    public Optional<Instant> ultimaAtividade(String userId) {
+        Shard shard = shardDe(userId);
+        synchronized (shard) {
+            Presenca presenca = shard.usuarios.get(userId);
+            return presenca == null ? Optional.empty() : Optional.of(Instant.ofEpochMilli(presenca.ultimaAtividade));
+        }
+    }
+
+    /**
+     * Presença atual dos usuários, para a resposta do WatchPresence: online
+     * aqui ou com uma entrada valendo na PresencaGlobal.
+     */
+    public Mono<List<PresenceUpdate>> consultar(Collection<String> userIds) {
+        return Mono.zip(registroUltimaVez.buscar(userIds), presencaGlobal.online(userIds)).map(consulta -> {
+            Map<String, Instant> ultimasVezes = consulta.getT1();
+            List<PresenceUpdate> atuais = new ArrayList<>(userIds.size());
+            for (String userId : userIds) {
+                Optional<Instant> local = ultimaAtividade(userId);
+                if (local.isPresent()) {
+                    atuais.add(NotificadorPresenca.atualizacao(userId, true, local.get()));
+                    continue;
+                }
+                Instant ultimaVez = ultimasVezes.get(userId);
+                if (consulta.getT2().contains(userId)) {
+                    atuais.add(NotificadorPresenca.atualizacao(userId, true, ultimaVez != null ? ultimaVez : Instant.now()));
+                } else if (ultimaVez != null) {
+                    atuais.add(NotificadorPresenca.atualizacao(userId, false, ultimaVez));
+                }
+            }
+            return atuais;
+        });
+    }
+
+    // "conectado" nulo = heartbeat (não muda o estado do stream)
+    private void tocar(String userId, Boolean conectado) {
+        long agora = System.currentTimeMillis();
+        boolean ficouOnline = false;
+        boolean agendar = false;
+        long prazo;
+        long token;
+
+        Shard shard = shardDe(userId);
+        synchronized (shard) {
+            Presenca presenca = shard.usuarios.get(userId);
+            if (presenca == null) {
+                presenca = new Presenca();
+                presenca.token = tokens.incrementAndGet();
+                shard.usuarios.put(userId, presenca);
+                ficouOnline = true;
+            }
+            if (conectado != null) {
+                presenca.conectado = conectado;
+            }
+            presenca.ultimaAtividade = agora;
+            presenca.expiraEm = Math.max(presenca.expiraEm, agora + toleranciaSegundos * 1000L);
+            prazo = presenca.expiraEm;
+            token = presenca.token;
+
+            if (!presenca.agendada) {
+                presenca.agendada = true;
+                agendar = true;
+            }
+        }
+
+        if (agendar) {
+            roda.agendar(userId, prazo);
+        }
+        registroUltimaVez.marcar(userId, agora);
+        if (!ficouOnline) {
+            presencaGlobal.renovar(userId, token, prazoGlobal(prazo));
+            return;
+        }
+
+        conferencias.remove(userId);
+        presencaGlobal.entrar(userId, token, prazoGlobal(prazo)).subscribe(
+            publicar -> {
+                if (publicar) {
+                    notificadorPresenca.publicar(userId, true, Instant.ofEpochMilli(agora));
+                }
+            },
+            erro -> {
+                // Sem a visão global, melhor um "online" repetido do que nenhum
+                log.warn("[PRESENCA] Falha ao registrar presenca global do usuario {}: {}", userId, erro.getMessage());
+                notificadorPresenca.publicar(userId, true, Instant.ofEpochMilli(agora));
+            });
+    }
+
+    @Scheduled(fixedDelayString = "${chat.presenca.tick-ms:1000}")
+    public void avancar() {
+        long agora = System.currentTimeMillis();
+        roda.avancar(agora, userId -> verificar(userId, agora));
+
+        for (Map.Entry<String, Long> conferencia : conferencias.entrySet()) {
+            if (conferencia.getValue() <= agora && conferencias.remove(conferencia.getKey(), conferencia.getValue())
+                    && !online(conferencia.getKey())) {
+                String userId = conferencia.getKey();
+                presencaGlobal.conferir(userId).subscribe(
+                    resultado -> aplicarSaida(userId, resultado, Instant.ofEpochMilli(agora)),
+                    erro -> log.warn("[PRESENCA] Falha ao conferir presenca global do usuario {}: {}", userId, erro.getMessage()));
+            }
+        }
+    }
+
+    private void verificar(String userId, long agora) {
+        long ultimaAtividade;
+        long novoPrazo = 0;
+        long token;
+
+        Shard shard = shardDe(userId);
+        synchronized (shard) {
+            Presenca presenca = shard.usuarios.get(userId);
+            if (presenca == null) {
+                return;
+            }
+
+            if (presenca.conectado) {
+                // Com stream aberto não há heartbeat: renova aqui, e o last_seen_at acompanha
+                presenca.ultimaAtividade = agora;
+                presenca.expiraEm = agora + toleranciaSegundos * 1000L;
+                novoPrazo = presenca.expiraEm;
+            } else if (presenca.expiraEm > agora) {
+                novoPrazo = presenca.expiraEm;
+            } else {
+                shard.usuarios.remove(userId);
+            }
+            ultimaAtividade = presenca.ultimaAtividade;
+            token = presenca.token;
+        }
+
+        if (novoPrazo > 0) {
+            roda.agendar(userId, novoPrazo);
+            if (ultimaAtividade == agora) {
+                registroUltimaVez.marcar(userId, agora);
+                presencaGlobal.renovar(userId, token, prazoGlobal(novoPrazo));
+            }
+            return;
+        }
+
+        registroUltimaVez.marcar(userId, ultimaAtividade);
+        Instant ultimaVez = Instant.ofEpochMilli(ultimaAtividade);
+        presencaGlobal.sair(userId, token).subscribe(
+            resultado -> aplicarSaida(userId, resultado, ultimaVez),
+            erro -> {
+                log.warn("[PRESENCA] Falha ao registrar saida global do usuario {}: {}", userId, erro.getMessage());
+                notificadorPresenca.publicar(userId, false, ultimaVez);
+            });
+    }
+
+    private void aplicarSaida(String userId, long resultado, Instant ultimaVez) {
+        if (resultado == PresencaGlobal.FICOU_OFFLINE) {
+            notificadorPresenca.publicar(userId, false, ultimaVez);
+        } else if (resultado > 0) {
+            // Outro nó ainda mantém o usuário online: se ele cair, alguém precisa publicar o offline
+            conferencias.merge(userId, resultado, Math::max);
+        }
+    }
+
+    // A entrada global precisa valer até a próxima renovação chegar ao MongoDB
+    private long prazoGlobal(long prazoLocal) {
+        return prazoLocal + 2 * intervaloGravacaoMs;
+    }
+
+    private Shard shardDe(String userId) {
+        return shards[Math.floorMod(userId.hashCode(), shards.length)];
+    }
+
+    private double totalOnline() {
+        long total = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                total += shard.usuarios.size();
+            }
+        }
+        return total;
+    }
+
+
+    private static final class Shard {
+        final Map<String, Presenca> usuarios = new HashMap<>();
+    }
+
+    private static final class Presenca {
+        long token;
+        boolean conectado;
+        long expiraEm;
+        long ultimaAtividade;
+        // Já tem um item na roda (um só por usuário)
+        boolean agendada;
+    }
+}
@@ -0,0 +1,209 @@
+package com.chat.publisher;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.AmqpException;
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.core.MessageDeliveryMode;
+import org.springframework.amqp.core.MessageProperties;
+import org.springframework.amqp.rabbit.batch.SimpleBatchingStrategy;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.chat.config.ParticionadorConversas;
+import com.chat.config.RabbitMQConfig;
+
+import br.com.meuprojeto.chat.v1.SendTextMessageRequest;
+
+/**
+ * Publica mensagens no Broker usando "publisher confirms".
+ *
+ * Cada publicação leva um CorrelationData próprio e devolve um CompletableFuture
+ * que só completa quando o RabbitMQ confirma (ack) a mensagem. Assim a thread
+ * do gRPC não fica bloqueada esperando o Broker e várias publicações podem
+ * ficar pendentes no mesmo canal ao mesmo tempo.
+ */
+@Component
+public class MensagemPublisher {
+
+    private static final Logger log = LoggerFactory.getLogger(MensagemPublisher.class);
+
+    @Autowired
+    private RabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private ParticionadorConversas particionador;
+
+    // Tempo máximo esperando o ack do Broker antes de considerar a publicação perdida
+    @Value("${chat.publicacao.timeout-confirmacao-ms:5000}")
+    private long timeoutConfirmacaoMs;
+
+    // Tamanho máximo (em bytes) de uma mensagem AMQP que agrupa várias mensagens de texto
+    @Value("${chat.publicacao.limite-bytes-lote:262144}")
+    private int limiteBytesLote;
+
+
+    /**
+     * Enfileira uma mensagem de texto. O future completa com sucesso apenas
+     * depois do ack do Broker; nack, mensagem devolvida (sem rota) ou timeout
+     * completam o future com erro.
+     * O remetente (já conferido como membro da conversa) segue no header RabbitMQConfig.HEADER_REMETENTE.
+     */
+    public CompletableFuture<Void> publicarTexto(SendTextMessageRequest request, String remetente) {
+        return publicar(RabbitMQConfig.EXCHANGE_MENSAGENS,
+                        particionador.routingKeyTexto(request.getConversationId()),
+                        request.getClientMessageId(),
+                        montarMensagem(request.getClientMessageId(), request.toByteArray(), remetente));
+    }
+
+    /**
+     * Enfileira várias mensagens de texto agrupando-as por conversa: cada grupo
+     * vira uma única mensagem AMQP no formato de lote do Spring AMQP (o container
+     * do Worker separa as mensagens de novo ao consumir). A lista devolvida tem
+     * um future por requisição, na mesma ordem; requisições do mesmo grupo
+     * compartilham a mesma confirmação.
+     */
+    public List<CompletableFuture<Void>> publicarLoteTexto(List<SendTextMessageRequest> requests, String remetente) {
+
+        // Agrupa preservando a ordem de chegada dentro de cada conversa
+        Map<String, List<Integer>> indicesPorConversa = new LinkedHashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            indicesPorConversa.computeIfAbsent(requests.get(i).getConversationId(), c -> new ArrayList<>()).add(i);
+        }
+
+        List<CompletableFuture<Void>> resultados = new ArrayList<>(Collections.nCopies(requests.size(), null));
+
+        for (Map.Entry<String, List<Integer>> grupo : indicesPorConversa.entrySet()) {
+            String routingKey = particionador.routingKeyTexto(grupo.getKey());
+
+            List<Integer> parte = new ArrayList<>();
+            int bytesParte = 0;
+
+            for (Integer indice : grupo.getValue()) {
+                int tamanho = Integer.BYTES + requests.get(indice).getSerializedSize();
+
+                if (!parte.isEmpty() && bytesParte + tamanho > limiteBytesLote) {
+                    publicarParte(routingKey, requests, remetente, parte, resultados);
+                    parte = new ArrayList<>();
+                    bytesParte = 0;
+                }
+                parte.add(indice);
+                bytesParte += tamanho;
+            }
+            publicarParte(routingKey, requests, remetente, parte, resultados);
+        }
+
+        return resultados;
+    }
+
+    private void publicarParte(String routingKey, List<SendTextMessageRequest> requests, String remetente,
+                               List<Integer> parte, List<CompletableFuture<Void>> resultados) {
+
+        SimpleBatchingStrategy estrategia = new SimpleBatchingStrategy(Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+        for (Integer indice : parte) {
+            SendTextMessageRequest request = requests.get(indice);
+            estrategia.addToBatch(RabbitMQConfig.EXCHANGE_MENSAGENS, routingKey,
+                                  montarMensagem(request.getClientMessageId(), request.toByteArray(), remetente));
+        }
+
+        // O lote leva as propriedades (e headers) da primeira mensagem; todas têm o mesmo remetente
+        // Um lote de uma mensagem só é publicado como mensagem simples
+        Message lote = estrategia.releaseBatches().iterator().next().getMessage();
+        String correlationId = requests.get(parte.get(0)).getClientMessageId() + "+" + (parte.size() - 1);
+
+        CompletableFuture<Void> confirmacao;
+        try {
+            confirmacao = publicar(RabbitMQConfig.EXCHANGE_MENSAGENS, routingKey, correlationId, lote);
+        } catch (Exception e) {
+            confirmacao = CompletableFuture.failedFuture(e);
+        }
+
+        for (Integer indice : parte) {
+            resultados.set(indice, confirmacao);
+        }
+    }
+
+    /**
+     * Reenvia uma entrega que falhou para a fila de retentativa do nível indicado.
+     * A routing key original é mantida para que, vencido o TTL, a mensagem volte
+     * para a mesma partição.
+     */
+    public CompletableFuture<Void> publicarRetentativa(Message entrega, int nivel, int tentativas) {
+        MessageProperties original = entrega.getMessageProperties();
+
+        Message retentativa = MessageBuilder.withBody(entrega.getBody())
+                .setContentType(MessageProperties.CONTENT_TYPE_BYTES)
+                .setDeliveryMode(MessageDeliveryMode.PERSISTENT)
+                .setCorrelationId(original.getCorrelationId())
+                .setHeader(RabbitMQConfig.HEADER_REMETENTE, original.getHeaders().get(RabbitMQConfig.HEADER_REMETENTE))
+                .setHeader(RabbitMQConfig.HEADER_NIVEL_RETENTATIVA, String.valueOf(nivel))
+                .setHeader(RabbitMQConfig.HEADER_TENTATIVAS, tentativas)
+                .build();
+
+        return publicar(RabbitMQConfig.EXCHANGE_RETENTATIVAS, original.getReceivedRoutingKey(),
+                        original.getCorrelationId(), retentativa);
+    }
+
+    /**
+     * Move uma entrega para a dead letter queue, registrando o motivo nos headers.
+     */
+    public CompletableFuture<Void> publicarDlq(Message entrega, String motivo, String erro) {
+        MessageProperties original = entrega.getMessageProperties();
+
+        Message morta = MessageBuilder.withBody(entrega.getBody())
+                .setContentType(MessageProperties.CONTENT_TYPE_BYTES)
+                .setDeliveryMode(MessageDeliveryMode.PERSISTENT)
+                .setCorrelationId(original.getCorrelationId())
+                .setHeader(RabbitMQConfig.HEADER_REMETENTE, original.getHeaders().get(RabbitMQConfig.HEADER_REMETENTE))
+                .setHeader(RabbitMQConfig.HEADER_TENTATIVAS, original.getHeaders().getOrDefault(RabbitMQConfig.HEADER_TENTATIVAS, 0))
+                .setHeader(RabbitMQConfig.HEADER_MOTIVO_FALHA, motivo)
+                .setHeader(RabbitMQConfig.HEADER_ERRO, erro)
+                .build();
+
+        return publicar(RabbitMQConfig.EXCHANGE_DLX, original.getReceivedRoutingKey(),
+                        original.getCorrelationId(), morta);
+    }
+
+    private Message montarMensagem(String correlationId, byte[] payloadBinario, String remetente) {
+        return MessageBuilder.withBody(payloadBinario)
+                .setContentType(MessageProperties.CONTENT_TYPE_BYTES)
+                .setDeliveryMode(MessageDeliveryMode.PERSISTENT)
+                .setCorrelationId(correlationId)
+                .setHeader(RabbitMQConfig.HEADER_REMETENTE, remetente)
+                .build();
+    }
+
+    private CompletableFuture<Void> publicar(String exchange, String routingKey, String correlationId, Message mensagem) {
+
+        CorrelationData correlacao = new CorrelationData(correlationId);
+
+        // Não bloqueia: o ack chega depois pela thread da conexão AMQP
+        rabbitTemplate.send(exchange, routingKey, mensagem, correlacao);
+
+        return correlacao.getFuture()
+                .orTimeout(timeoutConfirmacaoMs, TimeUnit.MILLISECONDS)
+                .thenAccept(confirm -> {
+                    if (!confirm.isAck()) {
+                        log.warn("[PUBLISHER] Broker recusou a mensagem (correlation_id: {}): {}", correlationId, confirm.getReason());
+                        throw new AmqpException("Broker recusou a mensagem: " + confirm.getReason());
+                    }
+                    if (correlacao.getReturned() != null) {
+                        // Confirmada, mas sem fila de destino (mandatory)
+                        log.warn("[PUBLISHER] Mensagem sem rota (correlation_id: {}, routing_key: {})", correlationId, routingKey);
+                        throw new AmqpException("Mensagem sem rota no Broker: " + correlacao.getReturned().getReplyText());
+                    }
+                });
+    }
+}
@@ -0,0 +1,14 @@
+package com.chat.repository;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.chat.model.ChatMessage;
+
+/**
+ * Leituras não bloqueantes das mensagens (usadas pelas RPCs de leitura).
+ */
+@Repository
+public interface ChatMessageReactiveRepository extends ReactiveMongoRepository<ChatMessage, String>, ChatMessageReactiveRepositoryCustom {
+
+}
@@ -0,0 +1,26 @@
+package com.chat.repository;
+
+import br.com.meuprojeto.chat.v1.Message;
+import reactor.core.publisher.Flux;
+
+/**
+ * Consultas reativas do ChatMessageReactiveRepository (driver reativo do
+ * MongoDB): nenhuma thread fica parada esperando o banco responder.
+ */
+public interface ChatMessageReactiveRepositoryCustom {
+
+    /**
+     * Busca até "limite" mensagens da conversa, da mais recente para a mais antiga,
+     * começando logo depois do cursor (ou do início, se o cursor for null).
+     * Usa apenas o índice (conversation_id, timestamp, _id): o custo não depende
+     * de quantas páginas já foram lidas. Decodifica direto no Protobuf (MessageCodec).
+     */
+    Flux<Message> buscarPagina(String conversationId, CursorMensagens apos, int limite);
+
+    /**
+     * A última mensagem de cada remetente (menos "excetoRemetente") com seq em
+     * (depoisDeSeq, ateSeq], numa única agregação no índice (conversation_id, seq).
+     * Só id e sender_id vêm preenchidos.
+     */
+    Flux<Message> ultimasPorRemetente(String conversationId, long depoisDeSeq, long ateSeq, String excetoRemetente);
+}
@@ -0,0 +1,81 @@
+package com.chat.repository;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import com.chat.mapper.MessageCodec;
+import com.chat.model.ChatMessage;
+import com.mongodb.client.model.Accumulators;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+import br.com.meuprojeto.chat.v1.Message;
+import reactor.core.publisher.Flux;
+
+/**
+ * Implementação das consultas reativas (fragmento do ChatMessageReactiveRepository).
+ *
+ * Usa a coleção do driver reativo com o MessageCodec registrado, para que o
+ * documento seja decodificado direto no Protobuf.
+ */
+class ChatMessageReactiveRepositoryCustomImpl implements ChatMessageReactiveRepositoryCustom {
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+
+    @Override
+    public Flux<Message> ultimasPorRemetente(String conversationId, long depoisDeSeq, long ateSeq, String excetoRemetente) {
+
+        // Um documento por remetente, no formato de uma mensagem (_id, sender_id) para o MessageCodec
+        List<Bson> pipeline = List.of(
+            Aggregates.match(Filters.and(
+                Filters.eq(MessageCodec.CAMPO_CONVERSA, conversationId),
+                Filters.gt(MessageCodec.CAMPO_SEQ, depoisDeSeq),
+                Filters.lte(MessageCodec.CAMPO_SEQ, ateSeq),
+                // Sem remetente (mensagens antigas, anônimas) não há a quem avisar
+                Filters.nin(MessageCodec.CAMPO_REMETENTE, Arrays.asList(excetoRemetente, null)))),
+            Aggregates.sort(Sorts.ascending(MessageCodec.CAMPO_SEQ)),
+            Aggregates.group("$" + MessageCodec.CAMPO_REMETENTE, Accumulators.last("ultima", "$" + MessageCodec.CAMPO_ID)),
+            Aggregates.project(Projections.fields(
+                Projections.computed(MessageCodec.CAMPO_ID, "$ultima"),
+                Projections.computed(MessageCodec.CAMPO_REMETENTE, "$" + MessageCodec.CAMPO_ID))));
+
+        return reactiveMongoTemplate.getCollection(reactiveMongoTemplate.getCollectionName(ChatMessage.class))
+                .flatMapMany(colecao -> colecao
+                    .withCodecRegistry(MessageCodec.registrarEm(colecao.getCodecRegistry()))
+                    .withDocumentClass(Message.class)
+                    .aggregate(pipeline));
+    }
+
+    @Override
+    public Flux<Message> buscarPagina(String conversationId, CursorMensagens apos, int limite) {
+
+        Bson filtro = Filters.eq(MessageCodec.CAMPO_CONVERSA, conversationId);
+
+        if (apos != null) {
+            // (timestamp, _id) < (t, id), comparando as duas chaves em ordem
+            Date timestamp = Date.from(apos.timestamp());
+            filtro = Filters.and(filtro, Filters.or(
+                Filters.lt(MessageCodec.CAMPO_TIMESTAMP, timestamp),
+                Filters.and(Filters.eq(MessageCodec.CAMPO_TIMESTAMP, timestamp), Filters.lt(MessageCodec.CAMPO_ID, apos.id()))));
+        }
+
+        Bson consulta = filtro;
+        return reactiveMongoTemplate.getCollection(reactiveMongoTemplate.getCollectionName(ChatMessage.class))
+                .flatMapMany(colecao -> colecao
+                    .withCodecRegistry(MessageCodec.registrarEm(colecao.getCodecRegistry()))
+                    .withDocumentClass(Message.class)
+                    .find(consulta)
+                    .projection(MessageCodec.PROJECAO)
+                    .sort(Sorts.descending(MessageCodec.CAMPO_TIMESTAMP, MessageCodec.CAMPO_ID))
+                    .limit(limite));
+    }
+}
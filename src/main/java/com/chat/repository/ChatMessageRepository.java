@@ -1,6 +1,8 @@
 package com.chat.repository;
 
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 import org.springframework.data.mongodb.repository.MongoRepository;
@@ -9,10 +11,13 @@ import org.springframework.stereotype.Repository;
 import com.chat.model.ChatMessage;
 
 @Repository
-public interface ChatMessageRepository extends MongoRepository<ChatMessage, String>{
+public interface ChatMessageRepository extends MongoRepository<ChatMessage, String>, ChatMessageRepositoryCustom {
 
     Optional<ChatMessage> findByClientMessageId(String clientMessageId);
 
+    // Confirma de uma vez as possíveis duplicatas apontadas pelo FiltroDuplicatas
+    List<ChatMessage> findByClientMessageIdIn(Collection<String> clientMessageIds);
+
 }
 
 
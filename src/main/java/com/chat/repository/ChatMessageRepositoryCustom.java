@@ -0,0 +1,23 @@
+package com.chat.repository;
+
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import br.com.meuprojeto.chat.v1.Message;
+
+/**
+ * Consultas do ChatMessageRepository que não cabem em métodos derivados.
+ *
+ * As leituras do histórico devolvem o Message do Protobuf direto (ver
+ * MessageCodec), sem passar pelo ChatMessage. As páginas do GetMessages saem
+ * do ChatMessageReactiveRepository.
+ */
+public interface ChatMessageRepositoryCustom {
+
+    /**
+     * Abre um cursor sobre o histórico da conversa, da mais antiga para a mais
+     * recente, a partir do cursor (exclusivo) ou, se ele for null, a partir de
+     * "desde" (inclusivo; null = desde o início). O Stream precisa ser fechado.
+     */
+    Stream<Message> abrirHistorico(String conversationId, CursorMensagens apos, Instant desde, int tamanhoLoteCursor);
+}
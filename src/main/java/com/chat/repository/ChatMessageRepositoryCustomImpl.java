@@ -0,0 +1,71 @@
+package com.chat.repository;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.chat.mapper.MessageCodec;
+import com.chat.model.ChatMessage;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+
+import br.com.meuprojeto.chat.v1.Message;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Implementação das consultas customizadas (fragmento do ChatMessageRepository).
+ *
+ * Usa a coleção do driver com o MessageCodec registrado, em vez do
+ * MongoTemplate, para que o documento seja decodificado direto no Protobuf.
+ */
+class ChatMessageRepositoryCustomImpl implements ChatMessageRepositoryCustom {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    private MongoCollection<Message> mensagens;
+
+
+    @PostConstruct
+    void inicializar() {
+        MongoCollection<?> colecao = mongoTemplate.getCollection(mongoTemplate.getCollectionName(ChatMessage.class));
+        mensagens = colecao
+                .withCodecRegistry(MessageCodec.registrarEm(colecao.getCodecRegistry()))
+                .withDocumentClass(Message.class);
+    }
+
+    @Override
+    public Stream<Message> abrirHistorico(String conversationId, CursorMensagens apos, Instant desde, int tamanhoLoteCursor) {
+
+        Bson filtro = Filters.eq(MessageCodec.CAMPO_CONVERSA, conversationId);
+
+        if (apos != null) {
+            // (timestamp, _id) > (t, id)
+            Date timestamp = Date.from(apos.timestamp());
+            filtro = Filters.and(filtro, Filters.or(
+                Filters.gt(MessageCodec.CAMPO_TIMESTAMP, timestamp),
+                Filters.and(Filters.eq(MessageCodec.CAMPO_TIMESTAMP, timestamp), Filters.gt(MessageCodec.CAMPO_ID, apos.id()))));
+        } else if (desde != null) {
+            filtro = Filters.and(filtro, Filters.gte(MessageCodec.CAMPO_TIMESTAMP, Date.from(desde)));
+        }
+
+        // Mesmo índice do buscarPagina, percorrido no sentido crescente
+        MongoCursor<Message> cursor = mensagens.find(filtro)
+                .projection(MessageCodec.PROJECAO)
+                .sort(Sorts.ascending(MessageCodec.CAMPO_TIMESTAMP, MessageCodec.CAMPO_ID))
+                .batchSize(tamanhoLoteCursor)
+                .iterator();
+
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED), false)
+                .onClose(cursor::close);
+    }
+}
@@ -0,0 +1,11 @@
+package com.chat.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.chat.model.Conversa;
+
+@Repository
+public interface ConversaRepository extends MongoRepository<Conversa, String> {
+
+}
@@ -0,0 +1,43 @@
+package com.chat.repository;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Base64;
+
+/**
+ * Chave do último resumo de uma página do GetConversations: a próxima página
+ * começa logo depois de (last_activity, conversation_id).
+ *
+ * Codificação do page_token: 1 byte de versão + 8 bytes de last_activity (ms)
+ * + conversation_id em UTF-8, em Base64 URL-safe sem padding.
+ */
+public record CursorConversas(Instant lastActivity, String conversationId) {
+
+    private static final byte VERSAO = 1;
+
+
+    public String codificar() {
+        byte[] id = conversationId.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + Long.BYTES + id.length)
+                .put(VERSAO)
+                .putLong(lastActivity.toEpochMilli())
+                .put(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * @throws IllegalArgumentException se o token não foi gerado por este servidor
+     */
+    public static CursorConversas decodificar(String pageToken) {
+        byte[] bytes = Base64.getUrlDecoder().decode(pageToken);
+        if (bytes.length <= 1 + Long.BYTES || bytes[0] != VERSAO) {
+            throw new IllegalArgumentException("page_token invalido");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+        Instant lastActivity = Instant.ofEpochMilli(buffer.getLong());
+        String conversationId = new String(bytes, 1 + Long.BYTES, bytes.length - 1 - Long.BYTES, StandardCharsets.UTF_8);
+        return new CursorConversas(lastActivity, conversationId);
+    }
+}
@@ -0,0 +1,56 @@
+package com.chat.repository;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Base64;
+
+import org.bson.types.ObjectId;
+
+import br.com.meuprojeto.chat.v1.Message;
+
+/**
+ * Chave da última mensagem de uma página do histórico, usada na paginação por
+ * chave (keyset): a próxima página começa logo depois de (timestamp, _id).
+ *
+ * No page_token ela vai codificada de forma compacta e opaca para o cliente:
+ * 1 byte de versão + 8 bytes de timestamp (ms) + 12 bytes do ObjectId, em
+ * Base64 URL-safe sem padding (28 caracteres).
+ */
+public record CursorMensagens(Instant timestamp, ObjectId id) {
+
+    private static final byte VERSAO = 1;
+    private static final int TAMANHO = 1 + Long.BYTES + 12;
+
+
+    /**
+     * Cursor posicionado na mensagem (a leitura seguinte começa logo depois dela).
+     */
+    public static CursorMensagens de(Message mensagem) {
+        Instant timestamp = Instant.ofEpochSecond(mensagem.getSentAt().getSeconds(), mensagem.getSentAt().getNanos());
+        return new CursorMensagens(timestamp, new ObjectId(mensagem.getId()));
+    }
+
+    public String codificar() {
+        ByteBuffer buffer = ByteBuffer.allocate(TAMANHO)
+                .put(VERSAO)
+                .putLong(timestamp.toEpochMilli())
+                .put(id.toByteArray());
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * @throws IllegalArgumentException se o token não foi gerado por este servidor
+     */
+    public static CursorMensagens decodificar(String pageToken) {
+        byte[] bytes = Base64.getUrlDecoder().decode(pageToken);
+        if (bytes.length != TAMANHO || bytes[0] != VERSAO) {
+            throw new IllegalArgumentException("page_token invalido");
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, TAMANHO - 1);
+        Instant timestamp = Instant.ofEpochMilli(buffer.getLong());
+        byte[] id = new byte[12];
+        buffer.get(id);
+        return new CursorMensagens(timestamp, new ObjectId(id));
+    }
+}
@@ -0,0 +1,14 @@
+package com.chat.repository;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.chat.model.ResumoConversa;
+
+/**
+ * Leituras não bloqueantes dos resumos de conversa (GetConversations).
+ */
+@Repository
+public interface ResumoConversaReactiveRepository extends ReactiveMongoRepository<ResumoConversa, String>, ResumoConversaReactiveRepositoryCustom {
+
+}
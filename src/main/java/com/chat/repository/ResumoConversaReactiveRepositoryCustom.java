@@ -0,0 +1,18 @@
+package com.chat.repository;
+
+import com.chat.model.ResumoConversa;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Consultas reativas do ResumoConversaReactiveRepository.
+ */
+public interface ResumoConversaReactiveRepositoryCustom {
+
+    /**
+     * Busca até "limite" conversas do usuário, da atividade mais recente para a
+     * mais antiga, começando logo depois do cursor (ou do início, se for null).
+     * Uma única leitura por faixa no índice (user_id, last_activity, conversation_id).
+     */
+    Flux<ResumoConversa> buscarPagina(String userId, CursorConversas apos, int limite);
+}
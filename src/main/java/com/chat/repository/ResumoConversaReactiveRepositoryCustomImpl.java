@@ -0,0 +1,43 @@
+package com.chat.repository;
+
+import java.util.Date;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.chat.model.ResumoConversa;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Implementação das consultas reativas (fragmento do ResumoConversaReactiveRepository).
+ */
+class ResumoConversaReactiveRepositoryCustomImpl implements ResumoConversaReactiveRepositoryCustom {
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+
+    @Override
+    public Flux<ResumoConversa> buscarPagina(String userId, CursorConversas apos, int limite) {
+
+        Criteria criteria = Criteria.where("userId").is(userId);
+
+        if (apos != null) {
+            // (last_activity, conversation_id) < (t, id), comparando as duas chaves em ordem
+            Date lastActivity = Date.from(apos.lastActivity());
+            criteria = criteria.orOperator(
+                Criteria.where("lastActivity").lt(lastActivity),
+                Criteria.where("lastActivity").is(lastActivity).and("conversationId").lt(apos.conversationId()));
+        }
+
+        Query query = Query.query(criteria)
+                .with(Sort.by(Sort.Order.desc("lastActivity"), Sort.Order.desc("conversationId")))
+                .limit(limite);
+
+        return reactiveMongoTemplate.find(query, ResumoConversa.class);
+    }
+}
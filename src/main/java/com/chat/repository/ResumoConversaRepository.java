@@ -0,0 +1,11 @@
+package com.chat.repository;
+
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.stereotype.Repository;
+
+import com.chat.model.ResumoConversa;
+
+@Repository
+public interface ResumoConversaRepository extends MongoRepository<ResumoConversa, String> {
+
+}
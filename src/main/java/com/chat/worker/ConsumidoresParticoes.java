@@ -0,0 +1,54 @@
+package com.chat.worker;
+
+import org.springframework.amqp.core.BatchMessageListener;
+import org.springframework.amqp.rabbit.annotation.RabbitListenerConfigurer;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerEndpoint;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistrar;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import com.chat.config.ParticionadorConversas;
+import com.chat.config.RabbitMQConfig;
+
+/**
+ * Registra um listener container por partição de mensagens de texto, cada um
+ * com um único consumidor, todos apontando para o MensagemWorker.
+ *
+ * Um @RabbitListener comum não serve aqui: com vários consumidores na mesma
+ * fila a ordem das conversas se perde, e com um consumidor ouvindo todas as
+ * filas não há paralelismo. Um container por fila resolve os dois.
+ */
+@Component
+public class ConsumidoresParticoes implements RabbitListenerConfigurer {
+
+    // Prefixo do id de cada container no RabbitListenerEndpointRegistry
+    public static final String ID_CONTAINER = "worker-texto-p";
+
+    @Autowired
+    private MensagemWorker mensagemWorker;
+
+    @Autowired
+    private ParticionadorConversas particionador;
+
+    @Autowired
+    @Qualifier(RabbitMQConfig.LOTE_CONTAINER_FACTORY)
+    private SimpleRabbitListenerContainerFactory loteContainerFactory;
+
+
+    @Override
+    public void configureRabbitListeners(RabbitListenerEndpointRegistrar registrar) {
+
+        for (int particao = 0; particao < particionador.quantidade(); particao++) {
+            SimpleRabbitListenerEndpoint endpoint = new SimpleRabbitListenerEndpoint();
+            endpoint.setId(ID_CONTAINER + particao);
+            endpoint.setQueueNames(RabbitMQConfig.filaTexto(particao));
+            endpoint.setConcurrency("1");
+            endpoint.setBatchListener(true);
+            endpoint.setMessageListener((BatchMessageListener) mensagemWorker::consumirMensagensTexto);
+
+            registrar.registerEndpoint(endpoint, loteContainerFactory);
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package com.chat.worker;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.amqp.core.AmqpAdmin;
+import org.springframework.amqp.core.QueueInformation;
+import org.springframework.amqp.rabbit.listener.RabbitListenerEndpointRegistry;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.chat.config.ParticionadorConversas;
+import com.chat.config.RabbitMQConfig;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Ajusta em tempo de execução o consumo das partições de mensagens de texto,
+ * a partir da profundidade de cada fila, da latência das gravações no MongoDB
+ * e da taxa de erro do Worker.
+ *
+ * Cada partição tem exatamente um consumidor (é o que garante a ordem por
+ * conversa), então o que o controlador regula é o tamanho do lote e o prefetch
+ * de cada container, sempre dentro dos limites configurados:
+ *  - MongoDB lento ou com erros: reduz o lote pela metade (alívio rápido);
+ *  - fila acumulando com MongoDB saudável: dobra o lote para drenar o pico;
+ *  - taxa de erro acima do limite de suspensão: para todos os consumidores por
+ *    um tempo, deixando as mensagens seguras na fila durante o incidente.
+ */
+@Component
+public class ControladorConsumo {
+
+    private static final Logger log = LoggerFactory.getLogger(ControladorConsumo.class);
+
+    @Autowired
+    private RabbitListenerEndpointRegistry listenerRegistry;
+
+    @Autowired
+    private AmqpAdmin amqpAdmin;
+
+    @Autowired
+    private ParticionadorConversas particionador;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${chat.worker.lote.tamanho:200}")
+    private int loteInicial;
+
+    @Value("${chat.worker.controle.lote-min:10}")
+    private int loteMinimo;
+
+    @Value("${chat.worker.controle.lote-max:2000}")
+    private int loteMaximo;
+
+    // Prefetch = lote * fator, limitado a prefetch-max
+    @Value("${chat.worker.controle.fator-prefetch:2}")
+    private int fatorPrefetch;
+
+    @Value("${chat.worker.controle.prefetch-max:4000}")
+    private int prefetchMaximo;
+
+    // Alterar o prefetch exige reiniciar o consumidor; limita a frequência disso
+    @Value("${chat.worker.controle.intervalo-min-reinicio-ms:30000}")
+    private long intervaloMinimoReinicioMs;
+
+    @Value("${chat.worker.controle.latencia-alvo-ms:250}")
+    private double latenciaAlvoMs;
+
+    @Value("${chat.worker.controle.erro-alvo:0.05}")
+    private double taxaErroAlvo;
+
+    @Value("${chat.worker.controle.erro-suspensao:0.5}")
+    private double taxaErroSuspensao;
+
+    // Mensagens mínimas no ciclo para a taxa de erro poder suspender o consumo
+    @Value("${chat.worker.controle.amostra-minima:20}")
+    private int amostraMinima;
+
+    @Value("${chat.worker.controle.pausa-ms:30000}")
+    private long pausaMs;
+
+    private Timer tempoPersistencia;
+    private Counter mensagensPersistidas;
+    private Counter falhasPersistencia;
+
+    // Estado por partição
+    private AtomicIntegerArray lotes;
+    private AtomicIntegerArray prefetches;
+    private long[] ultimoReinicio;
+
+    // Leituras do ciclo anterior, para calcular os deltas
+    private long contagemAnterior;
+    private double tempoTotalAnteriorMs;
+    private double persistidasAnterior;
+    private double falhasAnterior;
+
+    private long suspensoAte;
+
+
+    @PostConstruct
+    void inicializar() {
+        int quantidade = particionador.quantidade();
+        lotes = new AtomicIntegerArray(quantidade);
+        prefetches = new AtomicIntegerArray(quantidade);
+        ultimoReinicio = new long[quantidade];
+
+        for (int particao = 0; particao < quantidade; particao++) {
+            lotes.set(particao, loteInicial);
+            prefetches.set(particao, loteInicial);
+
+            final int p = particao;
+            Gauge.builder("chat.worker.controle.lote", lotes, l -> l.get(p))
+                 .tag("particao", String.valueOf(p))
+                 .register(meterRegistry);
+            Gauge.builder("chat.worker.controle.prefetch", prefetches, l -> l.get(p))
+                 .tag("particao", String.valueOf(p))
+                 .register(meterRegistry);
+        }
+
+        tempoPersistencia = meterRegistry.timer(MensagemWorker.METRICA_TEMPO_PERSISTENCIA);
+        mensagensPersistidas = meterRegistry.counter(MensagemWorker.METRICA_MENSAGENS_PERSISTIDAS);
+        falhasPersistencia = meterRegistry.counter(MensagemWorker.METRICA_FALHAS_PERSISTENCIA);
+    }
+
+
+    @Scheduled(fixedDelayString = "${chat.worker.controle.intervalo-ms:5000}")
+    public void ajustar() {
+
+        // Deltas desde o último ciclo
+        long contagem = tempoPersistencia.count();
+        double tempoTotalMs = tempoPersistencia.totalTime(TimeUnit.MILLISECONDS);
+        double persistidas = mensagensPersistidas.count();
+        double falhas = falhasPersistencia.count();
+
+        long lotesNoCiclo = contagem - contagemAnterior;
+        double latenciaMediaMs = lotesNoCiclo > 0 ? (tempoTotalMs - tempoTotalAnteriorMs) / lotesNoCiclo : 0;
+        double tentativas = (persistidas - persistidasAnterior) + (falhas - falhasAnterior);
+        double taxaErro = tentativas > 0 ? (falhas - falhasAnterior) / tentativas : 0;
+
+        contagemAnterior = contagem;
+        tempoTotalAnteriorMs = tempoTotalMs;
+        persistidasAnterior = persistidas;
+        falhasAnterior = falhas;
+
+        long agora = System.currentTimeMillis();
+
+        if (suspensoAte > 0) {
+            if (agora < suspensoAte) {
+                return;
+            }
+            retomar(agora);
+            return;
+        }
+
+        if (tentativas >= amostraMinima && taxaErro >= taxaErroSuspensao) {
+            suspender(agora, taxaErro);
+            return;
+        }
+
+        boolean mongoSobPressao = latenciaMediaMs > latenciaAlvoMs || taxaErro > taxaErroAlvo;
+
+        for (int particao = 0; particao < particionador.quantidade(); particao++) {
+            SimpleMessageListenerContainer container = container(particao);
+            if (container == null || !container.isRunning()) {
+                continue;
+            }
+
+            int loteAtual = lotes.get(particao);
+            int novoLote = loteAtual;
+
+            if (mongoSobPressao) {
+                novoLote = Math.max(loteMinimo, loteAtual / 2);
+            } else if (profundidade(particao) > loteAtual) {
+                novoLote = Math.min(loteMaximo, loteAtual * 2);
+            }
+
+            if (novoLote != loteAtual) {
+                log.info("[CONTROLE] Partição {}: lote {} -> {} (latência média {} ms, erro {})",
+                        particao, loteAtual, novoLote, Math.round(latenciaMediaMs), String.format("%.3f", taxaErro));
+                lotes.set(particao, novoLote);
+                container.setBatchSize(novoLote);
+            }
+
+            ajustarPrefetch(particao, container, agora);
+        }
+    }
+
+
+    /**
+     * O tamanho do lote vale na hora, mas o prefetch só é aplicado quando o
+     * consumidor é recriado. Só reinicia quando o alvo mudou mais de 2x e
+     * respeitando o intervalo mínimo entre reinícios.
+     */
+    private void ajustarPrefetch(int particao, SimpleMessageListenerContainer container, long agora) {
+        int alvo = Math.min(prefetchMaximo, Math.max(lotes.get(particao), lotes.get(particao) * fatorPrefetch));
+        int atual = prefetches.get(particao);
+
+        boolean mudancaRelevante = alvo > atual * 2 || alvo * 2 < atual;
+        if (!mudancaRelevante || agora - ultimoReinicio[particao] < intervaloMinimoReinicioMs) {
+            return;
+        }
+
+        log.info("[CONTROLE] Partição {}: prefetch {} -> {} (reiniciando consumidor)", particao, atual, alvo);
+        container.setPrefetchCount(alvo);
+        container.stop();
+        container.start();
+
+        prefetches.set(particao, alvo);
+        ultimoReinicio[particao] = agora;
+    }
+
+    private void suspender(long agora, double taxaErro) {
+        log.warn("[CONTROLE] Taxa de erro {} no MongoDB: suspendendo o consumo por {} ms",
+                String.format("%.3f", taxaErro), pausaMs);
+
+        for (int particao = 0; particao < particionador.quantidade(); particao++) {
+            SimpleMessageListenerContainer container = container(particao);
+            if (container != null) {
+                container.stop();
+            }
+        }
+        suspensoAte = agora + pausaMs;
+    }
+
+    // Volta com lotes pequenos; o ciclo normal aumenta se o MongoDB estiver saudável
+    private void retomar(long agora) {
+        log.info("[CONTROLE] Retomando o consumo das partições");
+
+        for (int particao = 0; particao < particionador.quantidade(); particao++) {
+            SimpleMessageListenerContainer container = container(particao);
+            if (container == null) {
+                continue;
+            }
+            lotes.set(particao, loteMinimo);
+            prefetches.set(particao, loteMinimo * fatorPrefetch);
+            ultimoReinicio[particao] = agora;
+
+            container.setBatchSize(loteMinimo);
+            container.setPrefetchCount(loteMinimo * fatorPrefetch);
+            container.start();
+        }
+        suspensoAte = 0;
+    }
+
+    private SimpleMessageListenerContainer container(int particao) {
+        return (SimpleMessageListenerContainer) listenerRegistry.getListenerContainer(ConsumidoresParticoes.ID_CONTAINER + particao);
+    }
+
+    private long profundidade(int particao) {
+        QueueInformation info = amqpAdmin.getQueueInfo(RabbitMQConfig.filaTexto(particao));
+        return info != null ? info.getMessageCount() : 0;
+    }
+}
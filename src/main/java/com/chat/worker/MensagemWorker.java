@@ -1,18 +1,49 @@
 package com.chat.worker;
 
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.core.Message;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Component;
 
+import com.chat.cache.ReplicadorCache;
 import com.chat.config.RabbitMQConfig;
+import com.chat.conversa.AtualizadorResumos;
+import com.chat.conversa.SequenciadorConversas;
+import com.chat.dedup.FiltroDuplicatas;
+import com.chat.eventos.NotificadorEventos;
+import com.chat.mapper.ChatMessageMapper;
 import com.chat.model.ChatMessage;
+import com.chat.publisher.MensagemPublisher;
 import com.chat.repository.ChatMessageRepository;
+import com.mongodb.ErrorCategory;
+import com.mongodb.bulk.BulkWriteError;
 
 import br.com.meuprojeto.chat.v1.SendTextMessageRequest;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
 
 
 @Component
@@ -20,54 +51,433 @@ public class MensagemWorker {
     
     private static final Logger log = LoggerFactory.getLogger(MensagemWorker.class);
 
+    public static final String METRICA_TEMPO_PERSISTENCIA = "chat.worker.persistencia";
+    public static final String METRICA_MENSAGENS_PERSISTIDAS = "chat.worker.mensagens.persistidas";
+    public static final String METRICA_FALHAS_PERSISTENCIA = "chat.worker.persistencia.falhas";
+
+    // Remetente usado quando a mensagem chega sem o header de remetente (chamada sem x-user-id)
+    private static final String REMETENTE_ANONIMO = "anonimo";
+
+    // Motivos registrados no header das mensagens enviadas para a DLQ
+    private static final String MOTIVO_PROTOBUF_INVALIDO = "protobuf-invalido";
+    private static final String MOTIVO_RECUSADA = "recusada-pelo-mongodb";
+    private static final String MOTIVO_TENTATIVAS_ESGOTADAS = "tentativas-esgotadas";
+
+    // Erros de escrita que se repetem a cada tentativa (documento inválido ou grande demais)
+    private static final Set<Integer> CODIGOS_ERRO_PERMANENTE = Set.of(
+        2,      // BadValue
+        121,    // DocumentValidationFailure
+        10334   // BSONObjectTooLarge
+    );
+
 
-    // TODO: Injetar o repositório MONGODB aqui
     @Autowired
     private ChatMessageRepository chatMessageRepository;
+
+    // Usado para o insert em lote (bulk), que o MongoRepository não expõe
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private FiltroDuplicatas filtroDuplicatas;
+
+    @Autowired
+    private ReplicadorCache replicadorCache;
+
+    @Autowired
+    private SequenciadorConversas sequenciadorConversas;
+
+    @Autowired
+    private AtualizadorResumos atualizadorResumos;
+
+    @Autowired
+    private NotificadorEventos notificadorEventos;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Reenvio para as filas de retentativa e para a DLQ
+    @Autowired
+    private MensagemPublisher mensagemPublisher;
+
+    @Autowired
+    private RabbitMQConfig rabbitMQConfig;
+
+    // Métricas de persistência, também usadas pelo ControladorConsumo
+    private Timer tempoPersistencia;
+    private Counter mensagensPersistidas;
+    private Counter falhasPersistencia;
+
+
+    @PostConstruct
+    void registrarMetricas() {
+        tempoPersistencia = meterRegistry.timer(METRICA_TEMPO_PERSISTENCIA);
+        mensagensPersistidas = meterRegistry.counter(METRICA_MENSAGENS_PERSISTIDAS);
+        falhasPersistencia = meterRegistry.counter(METRICA_FALHAS_PERSISTENCIA);
+    }
     
-    @RabbitListener(queues = RabbitMQConfig.QUEUE_MENSAGENS_TEXTO)
-    public void consumirMensagensTexto(byte[] payloadBinario){
-
-        SendTextMessageRequest request;
-        try{
-            request = SendTextMessageRequest.parseFrom(payloadBinario);
-            // TODO: Salvar request no MONGODB
-        }catch (Exception e) {
-        log.error("[WORKER] Falha ao decodificar Protobuf: {}", e.getMessage());            // TODO: verificar possibilidade de mover para uma fila de erros - dead queue
+    /**
+     * Consome as mensagens de texto em lote (ver RabbitMQConfig.LOTE_CONTAINER_FACTORY).
+     * Cada partição tem seu próprio container com um consumidor (ver ConsumidoresParticoes),
+     * então um lote contém mensagens de uma única partição, na ordem da fila.
+     * O lote inteiro vira um único insert bulk não ordenado; duplicatas são barradas
+     * pelo índice único de client_msg_id (insert-or-ignore). O MongoDB só é consultado
+     * antes para os ids que o FiltroDuplicatas aponta como possivelmente já vistos.
+     *
+     * Falhas não bloqueiam o consumidor: mensagens que podem dar certo depois vão
+     * para as filas de retentativa (atraso crescente) e as venenosas para a DLQ.
+     * O ack de todas as entregas é feito pelo container quando o método retorna,
+     * depois que o Broker confirmou esses reenvios.
+     */
+    public void consumirMensagensTexto(List<Message> entregas){
+
+        List<CompletableFuture<Void>> reenvios = new ArrayList<>();
+
+        processarLote(entregas, reenvios);
+
+        aguardarReenvios(reenvios);
+    }
+
+    private void processarLote(List<Message> entregas, List<CompletableFuture<Void>> reenvios) {
+
+        // O MongoDB guarda datas em milissegundos; trunca para a cópia em memória (cache) ficar igual
+        Instant recebidoEm = Instant.now().truncatedTo(ChronoUnit.MILLIS);
+
+        // Decodifica o lote, mantendo apenas a primeira ocorrência de cada client_message_id
+        Map<String, ChatMessage> mensagens = new LinkedHashMap<>();
+        Map<String, Message> entregasPorId = new HashMap<>();
+
+        for (Message entrega : entregas) {
+            SendTextMessageRequest request;
+            try{
+                request = SendTextMessageRequest.parseFrom(entrega.getBody());
+            }catch (Exception e) {
+                // Mensagem venenosa: nunca vai decodificar, não adianta tentar de novo
+                log.error("[WORKER] Falha ao decodificar Protobuf, movendo para a DLQ: {}", e.getMessage());
+                reenvios.add(mensagemPublisher.publicarDlq(entrega, MOTIVO_PROTOBUF_INVALIDO, String.valueOf(e.getMessage())));
+                continue;
+            }
+
+            // Mapear protobuf - request para o modelo
+            Object remetente = entrega.getMessageProperties().getHeaders().get(RabbitMQConfig.HEADER_REMETENTE);
+            ChatMessage mensagem = ChatMessageMapper.paraEntidade(request,
+                remetente != null ? remetente.toString() : REMETENTE_ANONIMO,
+                recebidoEm);
+
+            if (mensagens.putIfAbsent(request.getClientMessageId(), mensagem) != null) {
+                log.warn("[WORKER] Mensagem duplicada no mesmo lote (id: {}). Ignorando.", request.getClientMessageId());
+            } else {
+                entregasPorId.put(request.getClientMessageId(), entrega);
+            }
+        }
+
+        if (mensagens.isEmpty()) {
             return;
         }
 
-        String clientId = request.getClientMessageId();
-        String conversationId = request.getConversationId();
+        List<Falha> falhas = new ArrayList<>();
+
+        // Gravadas numa tentativa anterior que falhou antes de numerá-las
+        List<ChatMessage> semSequencia = new ArrayList<>();
+        descartarDuplicatasConfirmadas(mensagens, semSequencia);
+
+        List<String> duplicadas = new ArrayList<>();
+        List<ChatMessage> gravadas = new ArrayList<>(semSequencia);
+        if (!mensagens.isEmpty()) {
+            gravadas.addAll(salvarLote(new ArrayList<>(mensagens.values()), falhas, duplicadas));
+        }
+        gravadas.addAll(buscarSemSequencia(duplicadas, falhas));
+
+        List<ChatMessage> persistidas = atribuirSequencias(gravadas, falhas);
+
+        log.info("[WORKER] Lote de {} mensagens salvo no MongoDB ({} entregas recebidas)",
+                persistidas.size(), entregas.size());
+
+        for (Falha falha : falhas) {
+            reenvios.add(encaminharFalha(entregasPorId.get(falha.clientMessageId()), falha));
+        }
+
+        if (!persistidas.isEmpty()) {
+            propagar(persistidas);
+        }
+
+        //    TODO (PRÓXIMO PASSO):
+        //    Chamar os Conectores (WhatsApp, Telegram) para enviar
+        //    a mensagem ao destinatário
+    }
+
+    /**
+     * Cache, resumos e eventos das mensagens já gravadas. Uma falha aqui não
+     * pode derrubar o lote: as mensagens estão salvas e rejeitar o lote
+     * mandaria também elas para a DLQ. O cliente se recupera pelo GetMessages.
+     */
+    private void propagar(List<ChatMessage> persistidas) {
+        try {
+            List<br.com.meuprojeto.chat.v1.Message> novas = persistidas.stream().map(ChatMessageMapper::paraProto).toList();
+
+            // Mantém a cauda quente das conversas atualizada para o GetMessages, em todos os nós
+            replicadorCache.publicar(novas);
+
+            // Última mensagem, atividade e não lidas de cada participante (GetConversations)
+            atualizadorResumos.registrar(persistidas);
+
+            // Evento new_message para os streams abertos dos participantes (SubscribeToEvents)
+            notificadorEventos.novasMensagens(novas);
 
-        //Verifica se a mensagem já foi enviada ou processada
-        if(chatMessageRepository.findByClientMessageId(clientId).isPresent()){
-            log.warn("[WORKER] Mensagem duplicada recebida (id: {}). Ignorando.", clientId);
+        } catch (Exception e) {
+            log.error("[WORKER] Falha ao propagar {} mensagens já gravadas: {}", persistidas.size(), e.getMessage());
+        }
+    }
+
+    /**
+     * Falhas temporárias vão para o próximo nível de retentativa; falhas
+     * permanentes (venenosas) ou que esgotaram os níveis vão para a DLQ.
+     */
+    private CompletableFuture<Void> encaminharFalha(Message entrega, Falha falha) {
+
+        Object cabecalho = entrega.getMessageProperties().getHeaders().get(RabbitMQConfig.HEADER_TENTATIVAS);
+        int tentativas = (cabecalho instanceof Number n ? n.intValue() : 0) + 1;
+
+        if (!falha.temporaria()) {
+            log.error("[WORKER] Mensagem (id: {}) recusada pelo MongoDB, movendo para a DLQ: {}", falha.clientMessageId(), falha.erro());
+            return mensagemPublisher.publicarDlq(entrega, MOTIVO_RECUSADA, falha.erro());
+        }
+
+        if (tentativas > rabbitMQConfig.niveisRetentativa()) {
+            log.error("[WORKER] Mensagem (id: {}) esgotou {} tentativas, movendo para a DLQ: {}",
+                    falha.clientMessageId(), tentativas - 1, falha.erro());
+            return mensagemPublisher.publicarDlq(entrega, MOTIVO_TENTATIVAS_ESGOTADAS, falha.erro());
+        }
+
+        log.warn("[WORKER] Mensagem (id: {}) agendada para a tentativa {}: {}", falha.clientMessageId(), tentativas + 1, falha.erro());
+        return mensagemPublisher.publicarRetentativa(entrega, tentativas - 1, tentativas);
+    }
+
+    /**
+     * O lote só pode ser confirmado (ack) depois que as mensagens com falha estão
+     * seguras em outra fila. Se o Broker não confirmar, o container reprocessa o
+     * lote com atraso crescente e, esgotadas as tentativas, o manda inteiro para
+     * a DLQ (ver RabbitMQConfig.LOTE_CONTAINER_FACTORY); nunca volta direto para a
+     * fila. No reprocessamento, as mensagens que já foram gravadas são barradas
+     * como duplicatas e só as que falharam são encaminhadas de novo.
+     */
+    private void aguardarReenvios(List<CompletableFuture<Void>> reenvios) {
+        if (reenvios.isEmpty()) {
+            return;
+        }
+        try {
+            CompletableFuture.allOf(reenvios.toArray(CompletableFuture[]::new)).join();
+        } catch (CompletionException e) {
+            log.error("[WORKER] Broker não confirmou o reenvio de mensagens com falha: {}", e.getCause().getMessage());
+            throw new ReenvioNaoConfirmadoException("Falha ao reenviar mensagens com falha", e.getCause());
+        }
+    }
+
+
+    /**
+     * Só consulta o MongoDB para os ids que o FiltroDuplicatas aponta como
+     * possivelmente já vistos; a grande maioria (mensagens novas) segue direto
+     * para o insert. Duplicatas confirmadas saem do lote antes de gravar; as que
+     * ainda estão sem seq vão para "semSequencia", para serem numeradas agora.
+     */
+    private void descartarDuplicatasConfirmadas(Map<String, ChatMessage> mensagens, List<ChatMessage> semSequencia) {
+
+        List<String> possiveisDuplicatas = new ArrayList<>();
+        for (String clientId : mensagens.keySet()) {
+            if (filtroDuplicatas.talvezContenha(clientId)) {
+                possiveisDuplicatas.add(clientId);
+            }
+        }
+
+        if (possiveisDuplicatas.isEmpty()) {
             return;
         }
 
-        // Mapear protobuf - request para o modelo  (usar mapper depois)
-        ChatMessage.Content content = new ChatMessage.Content(request.getTextBody());
+        List<ChatMessage> existentes;
+        try {
+            existentes = chatMessageRepository.findByClientMessageIdIn(possiveisDuplicatas);
+        } catch (Exception e) {
+            // O índice único continua barrando duplicatas no insert
+            log.warn("[WORKER] Falha ao confirmar possíveis duplicatas no MongoDB: {}", e.getMessage());
+            return;
+        }
+
+        int confirmadas = 0;
+        for (ChatMessage existente : existentes) {
+            mensagens.remove(existente.getClientMessageId());
+            confirmadas++;
+            if (existente.getSeq() == 0) {
+                semSequencia.add(existente);
+            } else {
+                log.warn("[WORKER] Mensagem duplicada recebida (id: {}). Ignorando.", existente.getClientMessageId());
+            }
+        }
+
+        filtroDuplicatas.registrarConfirmacao(possiveisDuplicatas.size(), confirmadas);
+    }
+
+    /**
+     * Duplicatas barradas pelo índice único no insert (o FiltroDuplicatas não as
+     * apontou) que ainda estão sem seq. Se a consulta falhar, vão para
+     * retentativa: na próxima passagem são encontradas antes do insert.
+     */
+    private List<ChatMessage> buscarSemSequencia(List<String> duplicadas, List<Falha> falhas) {
+        if (duplicadas.isEmpty()) {
+            return List.of();
+        }
+        try {
+            return chatMessageRepository.findByClientMessageIdIn(duplicadas).stream()
+                    .filter(m -> m.getSeq() == 0)
+                    .toList();
+        } catch (Exception e) {
+            log.warn("[WORKER] Falha ao consultar {} duplicatas no MongoDB: {}", duplicadas.size(), e.getMessage());
+            duplicadas.forEach(id -> falhas.add(new Falha(id, true, String.valueOf(e.getMessage()))));
+            return List.of();
+        }
+    }
+
+    /**
+     * Numera as mensagens já gravadas de cada conversa, na ordem do lote,
+     * reservando uma faixa de seq por conversa, e grava as seqs com um único
+     * update bulk. Como só mensagens efetivamente inseridas são numeradas,
+     * duplicatas e retentativas não consomem seq.
+     *
+     * Devolve as mensagens numeradas. As demais já estão gravadas, mas sem seq:
+     * vão para retentativa e são numeradas quando voltarem (ver
+     * descartarDuplicatasConfirmadas).
+     */
+    private List<ChatMessage> atribuirSequencias(List<ChatMessage> gravadas, List<Falha> falhas) {
+        if (gravadas.isEmpty()) {
+            return List.of();
+        }
+
+        Map<String, List<ChatMessage>> porConversa = new LinkedHashMap<>();
+        for (ChatMessage mensagem : gravadas) {
+            porConversa.computeIfAbsent(mensagem.getConversationId(), c -> new ArrayList<>()).add(mensagem);
+        }
+
+        List<ChatMessage> numeradas = new ArrayList<>(gravadas.size());
+        for (Map.Entry<String, List<ChatMessage>> grupo : porConversa.entrySet()) {
+            try {
+                long seq = sequenciadorConversas.reservar(grupo.getKey(), grupo.getValue().size());
+                for (ChatMessage mensagem : grupo.getValue()) {
+                    mensagem.setSeq(seq++);
+                }
+                numeradas.addAll(grupo.getValue());
+            } catch (Exception e) {
+                log.error("[WORKER] Falha ao reservar sequências da conversa {}: {}", grupo.getKey(), e.getMessage());
+                grupo.getValue().forEach(m -> falhas.add(new Falha(m.getClientMessageId(), true, String.valueOf(e.getMessage()))));
+            }
+        }
+
+        if (numeradas.isEmpty()) {
+            return List.of();
+        }
+
+        BulkOperations operacoes = mongoTemplate.bulkOps(BulkMode.UNORDERED, ChatMessage.class);
+        for (ChatMessage mensagem : numeradas) {
+            operacoes.updateOne(Query.query(Criteria.where("_id").is(mensagem.getId())), Update.update("seq", mensagem.getSeq()));
+        }
+
+        // A faixa reservada para uma mensagem que não recebe a seq fica como buraco na conversa
+        try {
+            operacoes.execute();
+            return numeradas;
+
+        } catch (BulkOperationException e) {
+            Set<Integer> semSeq = new HashSet<>();
+            for (BulkWriteError erro : e.getErrors()) {
+                semSeq.add(erro.getIndex());
+                ChatMessage mensagem = numeradas.get(erro.getIndex());
+                log.error("[WORKER] Falha ao gravar a seq da mensagem (id: {}): {}", mensagem.getClientMessageId(), erro.getMessage());
+                falhas.add(new Falha(mensagem.getClientMessageId(), true, erro.getMessage()));
+            }
+            List<ChatMessage> gravadasComSeq = new ArrayList<>();
+            for (int i = 0; i < numeradas.size(); i++) {
+                if (!semSeq.contains(i)) {
+                    gravadasComSeq.add(numeradas.get(i));
+                }
+            }
+            return gravadasComSeq;
+
+        } catch (Exception e) {
+            log.error("[WORKER] Falha ao gravar as seqs de {} mensagens: {}", numeradas.size(), e.getMessage());
+            numeradas.forEach(m -> falhas.add(new Falha(m.getClientMessageId(), true, String.valueOf(e.getMessage()))));
+            return List.of();
+        }
+    }
+
+    /**
+     * Grava o lote com um único insert bulk não ordenado e devolve as mensagens
+     * efetivamente inseridas, ainda sem seq. Duplicatas barradas pelo índice
+     * único vão para "duplicadas"; as demais falhas são adicionadas em "falhas".
+     */
+    private List<ChatMessage> salvarLote(List<ChatMessage> messagesToSave, List<Falha> falhas, List<String> duplicadas) {
 
-        ChatMessage messageToSave = new ChatMessage(clientId, 
-        conversationId, 
-        "user-fixo-teste", // Substituir pelo id do remetente real
-        content, 
-        Instant.now());
-        
+        long inicio = System.nanoTime();
         try {
-            ChatMessage savedMessage = chatMessageRepository.save(messageToSave);
-            log.info("[WORKER] Mensagem (id: {}) salva no MongoDB com sucesso (ID do BD: {})",
-                    clientId, savedMessage.getId());
-
-            //    TODO (PRÓXIMO PASSO):
-            //    Chamar os Conectores (WhatsApp, Telegram) para enviar
-            //    a mensagem ao destinatário
-            
+            mongoTemplate.bulkOps(BulkMode.UNORDERED, ChatMessage.class)
+                    .insert(messagesToSave)
+                    .execute();
+
+            tempoPersistencia.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+            mensagensPersistidas.increment(messagesToSave.size());
+
+            messagesToSave.forEach(m -> filtroDuplicatas.adicionar(m.getClientMessageId()));
+            return messagesToSave;
+
+        } catch (BulkOperationException e) {
+            tempoPersistencia.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+
+            // Insert não ordenado: as demais mensagens do lote foram gravadas.
+            // Violação do índice único significa que a mensagem já foi processada.
+            Set<Integer> naoInseridas = new HashSet<>();
+
+            for (BulkWriteError erro : e.getErrors()) {
+                String clientId = messagesToSave.get(erro.getIndex()).getClientMessageId();
+                naoInseridas.add(erro.getIndex());
+
+                if (ErrorCategory.fromErrorCode(erro.getCode()) == ErrorCategory.DUPLICATE_KEY) {
+                    duplicadas.add(clientId);
+                    filtroDuplicatas.adicionar(clientId);
+                    log.warn("[WORKER] Mensagem duplicada recebida (id: {}). Ignorando.", clientId);
+                } else {
+                    log.error("[WORKER] Falha ao salvar mensagem (id: {}) no MongoDB: {}", clientId, erro.getMessage());
+                    falhas.add(new Falha(clientId, !CODIGOS_ERRO_PERMANENTE.contains(erro.getCode()), erro.getMessage()));
+                }
+            }
+
+            int falhasNoLote = naoInseridas.size() - duplicadas.size();
+            log.info("[WORKER] Lote salvo no MongoDB: {} inseridas, {} duplicadas, {} falhas",
+                    e.getResult().getInsertedCount(), duplicadas.size(), falhasNoLote);
+
+            mensagensPersistidas.increment(e.getResult().getInsertedCount());
+            falhasPersistencia.increment(falhasNoLote);
+
+            List<ChatMessage> persistidas = new ArrayList<>();
+            for (int i = 0; i < messagesToSave.size(); i++) {
+                if (!naoInseridas.contains(i)) {
+                    persistidas.add(messagesToSave.get(i));
+                    filtroDuplicatas.adicionar(messagesToSave.get(i).getClientMessageId());
+                }
+            }
+            return persistidas;
+
         } catch (Exception e) {
-            log.error("[WORKER] Falha ao salvar mensagem (id: {}) no MongoDB: {}", clientId, e.getMessage());
-            // TODO: Re-enfileirar a mensagem (NACK) ou mover para fila de erro
+            tempoPersistencia.record(System.nanoTime() - inicio, TimeUnit.NANOSECONDS);
+            falhasPersistencia.increment(messagesToSave.size());
+
+            log.error("[WORKER] Falha ao salvar lote de {} mensagens no MongoDB: {}", messagesToSave.size(), e.getMessage());
+            // Falha do lote inteiro (ex: MongoDB fora do ar): todas podem dar certo depois
+            messagesToSave.forEach(m -> falhas.add(new Falha(m.getClientMessageId(), true, String.valueOf(e.getMessage()))));
+            return List.of();
         }
+    }
+
 
+    /**
+     * Mensagem que não foi gravada. "temporaria" indica se vale tentar de novo.
+     */
+    private record Falha(String clientMessageId, boolean temporaria, String erro) {
     }
 }
@@ -0,0 +1,15 @@
+package com.chat.worker;
+
+import org.springframework.amqp.AmqpException;
+
+/**
+ * O Broker não confirmou (nack, sem rota ou timeout) o reenvio de mensagens
+ * com falha para a retentativa ou a DLQ. O lote não pode ser confirmado; o
+ * container o reprocessa com atraso (ver RabbitMQConfig.LOTE_CONTAINER_FACTORY).
+ */
+public class ReenvioNaoConfirmadoException extends AmqpException {
+
+    public ReenvioNaoConfirmadoException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
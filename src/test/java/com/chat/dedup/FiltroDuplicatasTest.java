@@ -0,0 +1,72 @@
+package com.chat.dedup;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class FiltroDuplicatasTest {
+
+    private MeterRegistry meterRegistry;
+    private FiltroDuplicatas filtro;
+
+
+    @BeforeEach
+    void criarFiltro() {
+        filtro = criar(60_000);
+    }
+
+    @Test
+    void lembraOsIdsAdicionados() {
+        filtro.adicionar("msg-1");
+
+        assertThat(filtro.talvezContenha("msg-1")).isTrue();
+        assertThat(filtro.talvezContenha("msg-2")).isFalse();
+    }
+
+    @Test
+    void esqueceOIdDepoisDeDuasRotacoes() {
+        // Janela zero: cada chamada descarta a geração anterior
+        filtro = criar(0);
+        filtro.adicionar("msg-1");
+
+        // Primeira rotação: o id passa para a geração anterior e ainda é lembrado
+        assertThat(filtro.talvezContenha("msg-1")).isTrue();
+        // Segunda: a geração dele foi descartada
+        assertThat(filtro.talvezContenha("msg-1")).isFalse();
+    }
+
+    @Test
+    void idAdicionadoDepoisDaRotacaoSobreviveAProxima() {
+        filtro = criar(0);
+        filtro.adicionar("antigo");
+        filtro.adicionar("novo");
+
+        assertThat(filtro.talvezContenha("novo")).isTrue();
+        assertThat(filtro.talvezContenha("antigo")).isFalse();
+    }
+
+    @Test
+    void contaFalsosPositivosNaConfirmacao() {
+        filtro.registrarConfirmacao(5, 2);
+
+        assertThat(meterRegistry.counter("chat.dedup.filtro.duplicatas.confirmadas").count()).isEqualTo(2);
+        assertThat(meterRegistry.counter("chat.dedup.filtro.falsos.positivos").count()).isEqualTo(3);
+    }
+
+
+    private FiltroDuplicatas criar(long janelaMs) {
+        FiltroDuplicatas novo = new FiltroDuplicatas();
+        ReflectionTestUtils.setField(novo, "capacidade", 1000L);
+        ReflectionTestUtils.setField(novo, "taxaFalsoPositivo", 0.01);
+        ReflectionTestUtils.setField(novo, "janelaMs", janelaMs);
+        meterRegistry = new SimpleMeterRegistry();
+        ReflectionTestUtils.setField(novo, "meterRegistry", meterRegistry);
+        novo.inicializar();
+        return novo;
+    }
+}
@@ -0,0 +1,162 @@
+package com.chat.eventos;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import br.com.meuprojeto.chat.v1.EphemeralSignal;
+import br.com.meuprojeto.chat.v1.Message;
+import br.com.meuprojeto.chat.v1.MessageStatus;
+import br.com.meuprojeto.chat.v1.MessageStatusUpdate;
+import br.com.meuprojeto.chat.v1.ServerEvent;
+import br.com.meuprojeto.chat.v1.TypingSignal;
+import io.grpc.Status;
+import io.grpc.stub.ServerCallStreamObserver;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class AssinaturaTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    @SuppressWarnings("unchecked")
+    private final ServerCallStreamObserver<ServerEvent> observer = mock(ServerCallStreamObserver.class);
+    private HubEventos hub;
+
+
+    @AfterEach
+    void encerrarHub() {
+        if (hub != null) {
+            hub.encerrar();
+        }
+    }
+
+    @Test
+    void descartaAPresencaMaisAntigaComAFilaCheia() {
+        Assinatura assinatura = criar(2, List.of(PoliticaExcesso.DESCARTAR_PRESENCA_ANTIGA));
+
+        assinatura.enviar(NotificadorPresenca.evento("a", true, Instant.EPOCH));
+        assinatura.enviar(NotificadorPresenca.evento("b", true, Instant.EPOCH));
+        assinatura.enviar(NotificadorPresenca.evento("c", true, Instant.EPOCH));
+
+        assertThat(assinatura.backlog()).isEqualTo(2);
+        assertThat(enviadosQuandoPronto(assinatura, 2))
+                .extracting(evento -> evento.getPresenceUpdate().getUserId())
+                .containsExactly("b", "c");
+        assertThat(descartes(PoliticaExcesso.DESCARTAR_PRESENCA_ANTIGA)).isEqualTo(1);
+    }
+
+    @Test
+    void agrupaStatusDaMesmaMensagem() {
+        Assinatura assinatura = criar(2, List.of(PoliticaExcesso.AGRUPAR_STATUS));
+
+        assinatura.enviar(status("m1", MessageStatus.DELIVERED));
+        assinatura.enviar(status("m1", MessageStatus.READ));
+
+        // O segundo substitui o primeiro sem ocupar outra posição
+        assertThat(assinatura.backlog()).isEqualTo(1);
+        assertThat(enviadosQuandoPronto(assinatura, 1))
+                .extracting(evento -> evento.getStatusUpdate().getNewStatus())
+                .containsExactly(MessageStatus.READ);
+        assertThat(descartes(PoliticaExcesso.AGRUPAR_STATUS)).isEqualTo(1);
+    }
+
+    @Test
+    void statusAtrasadoNaoSubstituiUmMaisAvancado() {
+        Assinatura assinatura = criar(2, List.of(PoliticaExcesso.AGRUPAR_STATUS));
+
+        assinatura.enviar(status("m1", MessageStatus.READ));
+        assinatura.enviar(status("m1", MessageStatus.DELIVERED));
+
+        assertThat(assinatura.backlog()).isEqualTo(1);
+        assertThat(enviadosQuandoPronto(assinatura, 1))
+                .extracting(evento -> evento.getStatusUpdate().getNewStatus())
+                .containsExactly(MessageStatus.READ);
+    }
+
+    @Test
+    void desconectaQuandoNenhumaPoliticaLiberaEspaco() {
+        Assinatura assinatura = criar(1, List.of(PoliticaExcesso.DESCARTAR_PRESENCA_ANTIGA, PoliticaExcesso.AGRUPAR_STATUS));
+
+        assinatura.enviar(mensagem("m1"));
+        assinatura.enviar(mensagem("m2"));
+
+        ArgumentCaptor<Throwable> erro = ArgumentCaptor.forClass(Throwable.class);
+        verify(observer).onError(erro.capture());
+        assertThat(Status.fromThrowable(erro.getValue()).getCode()).isEqualTo(Status.Code.RESOURCE_EXHAUSTED);
+        assertThat(Status.trailersFromThrowable(erro.getValue()).containsKey(Assinatura.HEADER_ULTIMO_EVENTO)).isTrue();
+        assertThat(assinatura.encerrada()).isTrue();
+        assertThat(descartes(PoliticaExcesso.DESCONECTAR)).isEqualTo(1);
+    }
+
+    @Test
+    void descartaSinalEfemeroComOStreamAtrasado() {
+        Assinatura assinatura = criar(10, List.of());
+
+        assinatura.enviar(ServerEvent.newBuilder()
+                .setEphemeralSignal(EphemeralSignal.newBuilder()
+                        .setConversationId("c1")
+                        .setUserId("a")
+                        .setTyping(TypingSignal.newBuilder().setIsTyping(true)))
+                .build());
+
+        assertThat(assinatura.backlog()).isZero();
+        verify(observer, never()).onNext(any());
+        assertThat(descartes(PoliticaExcesso.DESCARTAR_EFEMERO)).isEqualTo(1);
+    }
+
+
+    // Hub com a fila e as políticas dadas; o stream começa sem estar pronto
+    private Assinatura criar(int capacidade, List<PoliticaExcesso> politicas) {
+        hub = new HubEventos();
+        ReflectionTestUtils.setField(hub, "capacidadeFila", capacidade);
+        ReflectionTestUtils.setField(hub, "politicasConfiguradas", politicas);
+        ReflectionTestUtils.setField(hub, "maxEventosLote", 100);
+        ReflectionTestUtils.setField(hub, "maxEsperaLoteMs", 200L);
+        ReflectionTestUtils.setField(hub, "threadsLote", 1);
+        ReflectionTestUtils.setField(hub, "meterRegistry", meterRegistry);
+        hub.inicializar();
+
+        when(observer.isReady()).thenReturn(false);
+        return hub.criarAssinatura("destinatario", observer);
+    }
+
+    private List<ServerEvent> enviadosQuandoPronto(Assinatura assinatura, int quantidade) {
+        when(observer.isReady()).thenReturn(true);
+        assinatura.esvaziar();
+
+        ArgumentCaptor<ServerEvent> enviados = ArgumentCaptor.forClass(ServerEvent.class);
+        verify(observer, times(quantidade)).onNext(enviados.capture());
+        return enviados.getAllValues();
+    }
+
+    private double descartes(PoliticaExcesso politica) {
+        return meterRegistry.counter(HubEventos.METRICA_DESCARTES, "politica", politica.name().toLowerCase()).count();
+    }
+
+    private static ServerEvent status(String messageId, MessageStatus novo) {
+        return ServerEvent.newBuilder()
+                .setStatusUpdate(MessageStatusUpdate.newBuilder()
+                        .setMessageId(messageId)
+                        .setNewStatus(novo)
+                        .setUserIdAffected("destinatario"))
+                .build();
+    }
+
+    private static ServerEvent mensagem(String id) {
+        return ServerEvent.newBuilder()
+                .setNewMessage(Message.newBuilder().setId(id).setSenderId("remetente"))
+                .build();
+    }
+}
@@ -0,0 +1,66 @@
+package com.chat.mapper;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.Date;
+
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.Document;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+import com.mongodb.MongoClientSettings;
+
+import br.com.meuprojeto.chat.v1.Message;
+import br.com.meuprojeto.chat.v1.MessageStatus;
+
+class MessageCodecTest {
+
+    private final MessageCodec codec = new MessageCodec();
+    private final CodecRegistry registro = MongoClientSettings.getDefaultCodecRegistry();
+
+
+    @Test
+    void leODocumentoGravadoPeloChatMessage() {
+        ObjectId id = new ObjectId();
+        Document documento = new Document("_id", id)
+                .append("client_msg_id", "c-1")
+                .append("conversation_id", "conv-1")
+                .append("sender_id", "ana")
+                .append("timestamp", new Date(1_700_000_000_123L))
+                .append("seq", 42)
+                .append("content", new Document("text", "oi"))
+                .append("reply_to_message_id", null);
+
+        Message mensagem = codec.decode(new BsonDocumentReader(paraBson(documento)), DecoderContext.builder().build());
+
+        assertThat(mensagem.getId()).isEqualTo(id.toHexString());
+        assertThat(mensagem.getConversationId()).isEqualTo("conv-1");
+        assertThat(mensagem.getSenderId()).isEqualTo("ana");
+        assertThat(mensagem.getSentAt().getSeconds()).isEqualTo(1_700_000_000L);
+        assertThat(mensagem.getSentAt().getNanos()).isEqualTo(123_000_000);
+        assertThat(mensagem.getSeq()).isEqualTo(42);
+        assertThat(mensagem.getContent().getText().getBody()).isEqualTo("oi");
+        assertThat(mensagem.hasReplyToMessageId()).isFalse();
+        assertThat(mensagem.getStatus()).isEqualTo(MessageStatus.SENT);
+    }
+
+    @Test
+    void recusaGravar() {
+        // Sem client_msg_id o documento colidiria no índice único
+        assertThatThrownBy(() -> codec.encode(new BsonDocumentWriter(new BsonDocument()),
+                    Message.newBuilder().setId(new ObjectId().toHexString()).build(), EncoderContext.builder().build()))
+                .isInstanceOf(UnsupportedOperationException.class);
+    }
+
+
+    private BsonDocument paraBson(Document documento) {
+        return documento.toBsonDocument(BsonDocument.class, registro);
+    }
+}
@@ -0,0 +1,74 @@
+package com.chat.presenca;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RodaTemporizacaoTest {
+
+    // 8 slots de 100 ms: uma volta da roda cobre 800 ms
+    private final RodaTemporizacao<String> roda = new RodaTemporizacao<>(8, 100, 0);
+    private final List<String> vencidos = new ArrayList<>();
+
+
+    @Test
+    void entregaNoTickDoPrazo() {
+        roda.agendar("a", 250);
+
+        roda.avancar(200, vencidos::add);
+        assertThat(vencidos).isEmpty();
+
+        roda.avancar(300, vencidos::add);
+        assertThat(vencidos).containsExactly("a");
+    }
+
+    @Test
+    void reagendaQuandoOPrazoFoiEstendido() {
+        long[] prazo = { 250 };
+        roda.agendar("a", prazo[0]);
+        prazo[0] = 650;
+
+        // Quem recebe confere o prazo atual e agenda de novo se ainda não venceu
+        roda.avancar(300, item -> {
+            if (prazo[0] > 300) {
+                roda.agendar(item, prazo[0]);
+            } else {
+                vencidos.add(item);
+            }
+        });
+        assertThat(vencidos).isEmpty();
+
+        roda.avancar(700, vencidos::add);
+        assertThat(vencidos).containsExactly("a");
+    }
+
+    @Test
+    void prazoAlemDeUmaVoltaSaiAntesESeReagenda() {
+        roda.agendar("a", 1250);
+
+        // Mesmo slot do tick 5: sai uma volta antes do prazo
+        List<String> antecipados = new ArrayList<>();
+        roda.avancar(500, antecipados::add);
+        assertThat(antecipados).containsExactly("a");
+
+        roda.agendar("a", 1250);
+        roda.avancar(1200, vencidos::add);
+        assertThat(vencidos).isEmpty();
+
+        roda.avancar(1300, vencidos::add);
+        assertThat(vencidos).containsExactly("a");
+    }
+
+    @Test
+    void prazoJaVencidoVaiParaOProximoTick() {
+        roda.avancar(500, vencidos::add);
+
+        roda.agendar("a", 100);
+
+        roda.avancar(600, vencidos::add);
+        assertThat(vencidos).containsExactly("a");
+    }
+}
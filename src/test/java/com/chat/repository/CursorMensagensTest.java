@@ -0,0 +1,60 @@
+package com.chat.repository;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Instant;
+import java.util.Base64;
+
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import com.google.protobuf.Timestamp;
+
+import br.com.meuprojeto.chat.v1.Message;
+
+class CursorMensagensTest {
+
+    @Test
+    void decodificaOQueCodificou() {
+        CursorMensagens cursor = new CursorMensagens(Instant.ofEpochMilli(1_700_000_000_123L), new ObjectId());
+
+        String token = cursor.codificar();
+
+        assertThat(token).hasSize(28);
+        assertThat(CursorMensagens.decodificar(token)).isEqualTo(cursor);
+    }
+
+    @Test
+    void guardaOTimestampEmMilissegundos() {
+        ObjectId id = new ObjectId();
+        Message mensagem = Message.newBuilder()
+                .setId(id.toHexString())
+                .setSentAt(Timestamp.newBuilder().setSeconds(1_700_000_000L).setNanos(123_456_789))
+                .build();
+
+        CursorMensagens cursor = CursorMensagens.decodificar(CursorMensagens.de(mensagem).codificar());
+
+        assertThat(cursor.timestamp()).isEqualTo(Instant.ofEpochMilli(1_700_000_000_123L));
+        assertThat(cursor.id()).isEqualTo(id);
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { "", "nao*e*base64", "AQID" })
+    void recusaTokenMalformado(String token) {
+        assertThatThrownBy(() -> CursorMensagens.decodificar(token))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void recusaVersaoDesconhecida() {
+        byte[] bytes = Base64.getUrlDecoder().decode(new CursorMensagens(Instant.now(), new ObjectId()).codificar());
+        bytes[0] = 2;
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+
+        assertThatThrownBy(() -> CursorMensagens.decodificar(token))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}